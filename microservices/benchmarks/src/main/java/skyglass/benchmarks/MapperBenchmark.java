@@ -0,0 +1,108 @@
+package skyglass.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.microservices.core.product.persistence.ProductEntity;
+import se.magnus.microservices.core.product.services.ProductMapper;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
+import se.magnus.microservices.core.recommendation.services.RecommendationMapper;
+import se.magnus.microservices.core.review.persistence.ReviewEntity;
+import se.magnus.microservices.core.review.services.ReviewMapper;
+
+/**
+ * The MapStruct mappers of the core services, single entities and lists of entities of varying size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MapperBenchmark {
+
+    @Param({ "1", "10", "100" })
+    private int size;
+
+    private final ProductMapper productMapper = Mappers.getMapper(ProductMapper.class);
+
+    private final RecommendationMapper recommendationMapper = Mappers.getMapper(RecommendationMapper.class);
+
+    private final ReviewMapper reviewMapper = Mappers.getMapper(ReviewMapper.class);
+
+    private ProductEntity productEntity;
+
+    private Product product;
+
+    private List<RecommendationEntity> recommendationEntities;
+
+    private List<Recommendation> recommendations;
+
+    private List<ReviewEntity> reviewEntities;
+
+    private List<Review> reviews;
+
+    @Setup
+    public void setup() {
+        productEntity = new ProductEntity(1, "product 1", 1);
+        product = new Product(1, "product 1", 1, null);
+
+        recommendationEntities = new ArrayList<>(size);
+        recommendations = new ArrayList<>(size);
+        reviewEntities = new ArrayList<>(size);
+        reviews = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            recommendationEntities.add(new RecommendationEntity(1, i, "author " + i, i % 5, "content " + i));
+            recommendations.add(new Recommendation(1, i, "author " + i, i % 5, "content " + i, null));
+            reviewEntities.add(new ReviewEntity(1, i, "author " + i, "subject " + i, "content " + i));
+            reviews.add(new Review(1, i, "author " + i, "subject " + i, "content " + i, null));
+        }
+    }
+
+    @Benchmark
+    public Product productEntityToApi() {
+        return productMapper.entityToApi(productEntity);
+    }
+
+    @Benchmark
+    public ProductEntity productApiToEntity() {
+        return productMapper.apiToEntity(product);
+    }
+
+    @Benchmark
+    public List<Recommendation> recommendationEntityListToApiList() {
+        return recommendationMapper.entityListToApiList(recommendationEntities);
+    }
+
+    @Benchmark
+    public List<RecommendationEntity> recommendationApiListToEntityList() {
+        return recommendationMapper.apiListToEntityList(recommendations);
+    }
+
+    @Benchmark
+    public List<Review> reviewEntityListToApiList() {
+        return reviewMapper.entityListToApiList(reviewEntities);
+    }
+
+    @Benchmark
+    public List<ReviewEntity> reviewApiListToEntityList() {
+        return reviewMapper.apiListToEntityList(reviews);
+    }
+}
@@ -0,0 +1,67 @@
+package skyglass.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import skyglass.composer.product.services.ProductCompositeAggregator;
+
+/**
+ * Assembly of a product aggregate from its core entities, see {@link ProductCompositeAggregator#createProductAggregate}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ProductAggregateBenchmark {
+
+    @Param({ "0", "10", "100" })
+    private int recommendationCount;
+
+    @Param({ "0", "10", "100" })
+    private int reviewCount;
+
+    private Product product;
+
+    private List<Recommendation> recommendations;
+
+    private List<Review> reviews;
+
+    @Setup
+    public void setup() {
+        product = new Product(1, "product 1", 1, "product/1.2.3.4:80");
+
+        recommendations = new ArrayList<>(recommendationCount);
+        for (int i = 0; i < recommendationCount; i++) {
+            recommendations.add(new Recommendation(1, i, "author " + i, i % 5, "content " + i, "recommendation/1.2.3.4:80"));
+        }
+
+        reviews = new ArrayList<>(reviewCount);
+        for (int i = 0; i < reviewCount; i++) {
+            reviews.add(new Review(1, i, "author " + i, "subject " + i, "content " + i, "review/1.2.3.4:80"));
+        }
+    }
+
+    @Benchmark
+    public ProductAggregate createProductAggregate() {
+        return ProductCompositeAggregator.createProductAggregate(product, recommendations, reviews, "product-composite/1.2.3.4:80");
+    }
+}
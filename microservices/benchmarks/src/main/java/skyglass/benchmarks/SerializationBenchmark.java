@@ -0,0 +1,96 @@
+package skyglass.benchmarks;
+
+import static se.magnus.api.event.Event.Type.CREATE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.RecommendationSummary;
+import se.magnus.api.composite.product.ReviewSummary;
+import se.magnus.api.composite.product.ServiceAddresses;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.event.Event;
+
+/**
+ * Jackson (de)serialization of the composite API response and of the events published to the message broker,
+ * with an ObjectMapper configured the way Spring Boot configures it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializationBenchmark {
+
+    private static final TypeReference<Event<Integer, Product>> PRODUCT_EVENT = new TypeReference<Event<Integer, Product>>() {
+    };
+
+    @Param({ "0", "10", "100" })
+    private int summaryCount;
+
+    private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private ProductAggregate aggregate;
+
+    private byte[] aggregateJson;
+
+    private Event<Integer, Product> event;
+
+    private byte[] eventJson;
+
+    @Setup
+    public void setup() throws IOException {
+        List<RecommendationSummary> recommendations = new ArrayList<>(summaryCount);
+        List<ReviewSummary> reviews = new ArrayList<>(summaryCount);
+        for (int i = 0; i < summaryCount; i++) {
+            recommendations.add(new RecommendationSummary(i, "author " + i, i % 5, "content " + i));
+            reviews.add(new ReviewSummary(i, "author " + i, "subject " + i, "content " + i));
+        }
+        ServiceAddresses serviceAddresses = new ServiceAddresses("product-composite/1.2.3.4:80", "product/1.2.3.4:80", "review/1.2.3.4:80", "recommendation/1.2.3.4:80");
+        aggregate = new ProductAggregate(1, "product 1", 1, recommendations, reviews, serviceAddresses);
+        aggregateJson = mapper.writeValueAsBytes(aggregate);
+
+        event = new Event<>(CREATE, 1, new Product(1, "product 1", 1, null));
+        eventJson = mapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public byte[] serializeProductAggregate() throws IOException {
+        return mapper.writeValueAsBytes(aggregate);
+    }
+
+    @Benchmark
+    public ProductAggregate deserializeProductAggregate() throws IOException {
+        return mapper.readValue(aggregateJson, ProductAggregate.class);
+    }
+
+    @Benchmark
+    public byte[] serializeProductEvent() throws IOException {
+        return mapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public Event<Integer, Product> deserializeProductEvent() throws IOException {
+        return mapper.readValue(eventJson, PRODUCT_EVENT);
+    }
+}
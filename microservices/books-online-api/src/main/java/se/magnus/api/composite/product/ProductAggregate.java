@@ -9,6 +9,7 @@ public class ProductAggregate {
     private final List<RecommendationSummary> recommendations;
     private final List<ReviewSummary> reviews;
     private final ServiceAddresses serviceAddresses;
+    private final boolean stale;
 
     public ProductAggregate() {
         productId = 0;
@@ -17,6 +18,7 @@ public class ProductAggregate {
         recommendations = null;
         reviews = null;
         serviceAddresses = null;
+        stale = false;
     }
 
     public ProductAggregate(
@@ -27,12 +29,28 @@ public class ProductAggregate {
         List<ReviewSummary> reviews,
         ServiceAddresses serviceAddresses) {
 
+        this(productId, name, weight, recommendations, reviews, serviceAddresses, false);
+    }
+
+    /**
+     * @param stale true if a part of the aggregate is a last known good value, served because a core service was not available
+     */
+    public ProductAggregate(
+        int productId,
+        String name,
+        int weight,
+        List<RecommendationSummary> recommendations,
+        List<ReviewSummary> reviews,
+        ServiceAddresses serviceAddresses,
+        boolean stale) {
+
         this.productId = productId;
         this.name = name;
         this.weight = weight;
         this.recommendations = recommendations;
         this.reviews = reviews;
         this.serviceAddresses = serviceAddresses;
+        this.stale = stale;
     }
 
     public int getProductId() {
@@ -58,4 +76,8 @@ public class ProductAggregate {
     public ServiceAddresses getServiceAddresses() {
         return serviceAddresses;
     }
+
+    public boolean isStale() {
+        return stale;
+    }
 }
@@ -0,0 +1,113 @@
+package se.magnus.api.composite.product;
+
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking variant of {@link ProductCompositeService}, served by WebFlux.
+ * Exposes the same endpoints, but never parks a request thread while waiting for the core services.
+ */
+@Api(description = "Reactive REST API for composite product information.")
+public interface ReactiveProductCompositeService {
+
+	/**
+	 * Sample usage:
+	 *
+	 * curl -X POST $HOST:$PORT/product-composite \
+	 * -H "Content-Type: application/json" --data \
+	 * '{"productId":123,"name":"product 123","weight":123}'
+	 *
+	 * @param body
+	 */
+	@ApiOperation(value = "${api.product-composite.create-composite-product.description}", notes = "${api.product-composite.create-composite-product.notes}")
+	@ApiResponses(value = {
+			@ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
+			@ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information.")
+	})
+	@PostMapping(value = "/product", consumes = "application/json")
+	Mono<Void> createCompositeProduct(@RequestBody ProductAggregate body);
+
+	/**
+	 * Sample usage: curl $HOST:$PORT/product-composite/1
+	 *
+	 * @param productId
+	 * @return the composite product info, if found, else empty
+	 */
+	@ApiOperation(value = "${api.product-composite.get-composite-product.description}", notes = "${api.product-composite.get-composite-product.notes}")
+	@ApiResponses(value = {
+			@ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
+			@ApiResponse(code = 404, message = "Not found, the specified id does not exist."),
+			@ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information.")
+	})
+	@GetMapping(value = "/product/{productId}", produces = "application/json")
+	Mono<ProductAggregate> getCompositeProduct(
+			@RequestHeader HttpHeaders headers,
+			@PathVariable int productId);
+
+	/**
+	 * Sample usage:
+	 *
+	 * curl -X POST $HOST:$PORT/product-composite/api/products:batchGet \
+	 * -H "Content-Type: application/json" --data '[1,2,3]'
+	 *
+	 * @param productIds
+	 * @return the composite product info of the products found, in the requested order
+	 */
+	@ApiOperation(value = "${api.product-composite.get-composite-products.description}", notes = "${api.product-composite.get-composite-products.notes}")
+	@ApiResponses(value = {
+			@ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
+			@ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information.")
+	})
+	@PostMapping(value = "/products:batchGet", consumes = "application/json", produces = "application/json")
+	Flux<ProductAggregate> getCompositeProducts(
+			@RequestHeader HttpHeaders headers,
+			@RequestBody List<Integer> productIds);
+
+	/**
+	 * Sample usage:
+	 *
+	 * curl -H "Accept: application/x-ndjson" $HOST:$PORT/product-composite/api/products/export?fromProductId=0
+	 *
+	 * @param fromProductId watermark, only products with a greater productId are exported
+	 * @return the composite product info of all products with a productId greater than the watermark, ordered by productId
+	 */
+	@ApiOperation(value = "${api.product-composite.export-composite-products.description}", notes = "${api.product-composite.export-composite-products.notes}")
+	@ApiResponses(value = {
+			@ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
+			@ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information.")
+	})
+	@GetMapping(value = "/products/export", produces = "application/x-ndjson")
+	Flux<ProductAggregate> exportCompositeProducts(
+			@RequestHeader HttpHeaders headers,
+			@RequestParam(value = "fromProductId", required = false, defaultValue = "0") int fromProductId);
+
+	/**
+	 * Sample usage:
+	 *
+	 * curl -X DELETE $HOST:$PORT/product-composite/1
+	 *
+	 * @param productId
+	 */
+	@ApiOperation(value = "${api.product-composite.delete-composite-product.description}", notes = "${api.product-composite.delete-composite-product.notes}")
+	@ApiResponses(value = {
+			@ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
+			@ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information.")
+	})
+	@DeleteMapping(value = "/product/{productId}")
+	Mono<Void> deleteCompositeProduct(@PathVariable int productId);
+}
@@ -1,5 +1,7 @@
 package se.magnus.api.core.product;
 
+import java.util.List;
+
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -9,6 +11,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductService {
@@ -16,6 +19,14 @@ public interface ProductService {
 	@PostMapping(value = "/product", consumes = "application/json")
 	Product createProduct(@RequestBody Product body);
 
+	/**
+	 * Creates several products in one bulk write, used when events are consumed in batches.
+	 *
+	 * @param body
+	 * @return the created products
+	 */
+	List<Product> createProducts(List<Product> body);
+
 	/**
 	 * Sample usage: curl $HOST:$PORT/product/1
 	 *
@@ -29,6 +40,29 @@ public interface ProductService {
 			@RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
 			@RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent);
 
+	/**
+	 * Sample usage: curl -H "Accept: application/x-ndjson" $HOST:$PORT/products?productIds=1,2,3
+	 *
+	 * @param productIds
+	 * @return the products found, products that do not exist are left out.
+	 *         Streamed as newline delimited JSON if requested, else collected into a JSON array
+	 */
+	@GetMapping(value = "/products", produces = { "application/x-ndjson", "application/json" })
+	Flux<Product> getProductsByProductIds(
+			@RequestHeader HttpHeaders headers,
+			@RequestParam(value = "productIds", required = true) List<Integer> productIds);
+
+	/**
+	 * Sample usage: curl -H "Accept: application/x-ndjson" $HOST:$PORT/products/export?fromProductId=0
+	 *
+	 * @param fromProductId watermark, only products with a greater productId are returned
+	 * @return all products with a productId greater than the watermark, ordered by productId
+	 */
+	@GetMapping(value = "/products/export", produces = "application/x-ndjson")
+	Flux<Product> exportProducts(
+			@RequestHeader HttpHeaders headers,
+			@RequestParam(value = "fromProductId", required = false, defaultValue = "0") int fromProductId);
+
 	@GetMapping(value = "/product-ext/{productId}", produces = "application/json")
 	Mono<Product> getProductExt(
 			@RequestHeader HttpHeaders headers,
@@ -38,4 +72,11 @@ public interface ProductService {
 
 	@DeleteMapping(value = "/product/{productId}")
 	void deleteProduct(@PathVariable int productId);
+
+	/**
+	 * Deletes the products of several productIds with one multi-key delete, used when events are consumed in batches.
+	 *
+	 * @param productIds
+	 */
+	void deleteProducts(List<Integer> productIds);
 }
@@ -1,5 +1,7 @@
 package se.magnus.api.core.recommendation;
 
+import java.util.List;
+
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -12,6 +14,14 @@ public interface RecommendationService {
 
 	Recommendation createRecommendation(@RequestBody Recommendation body);
 
+	/**
+	 * Creates several recommendations in one bulk write, used when events are consumed in batches.
+	 *
+	 * @param body
+	 * @return the created recommendations
+	 */
+	List<Recommendation> createRecommendations(List<Recommendation> body);
+
 	/**
 	 * Sample usage:
 	 *
@@ -23,5 +33,24 @@ public interface RecommendationService {
 	@GetMapping(value = "/recommendation", produces = "application/json")
 	Flux<Recommendation> getRecommendations(@RequestHeader HttpHeaders headers, @RequestParam(value = "productId", required = true) int productId);
 
+	/**
+	 * Sample usage:
+	 *
+	 * curl -H "Accept: application/x-ndjson" $HOST:$PORT/recommendations?productIds=1,2,3
+	 *
+	 * @param productIds
+	 * @return the recommendations of all the given products.
+	 *         Streamed as newline delimited JSON if requested, else collected into a JSON array
+	 */
+	@GetMapping(value = "/recommendations", produces = { "application/x-ndjson", "application/json" })
+	Flux<Recommendation> getRecommendationsByProductIds(@RequestHeader HttpHeaders headers, @RequestParam(value = "productIds", required = true) List<Integer> productIds);
+
 	void deleteRecommendations(@RequestParam(value = "productId", required = true) int productId);
+
+	/**
+	 * Deletes the recommendations of several productIds with one multi-key delete, used when events are consumed in batches.
+	 *
+	 * @param productIds
+	 */
+	void deleteRecommendationsByProductIds(List<Integer> productIds);
 }
@@ -1,5 +1,7 @@
 package se.magnus.api.core.review;
 
+import java.util.List;
+
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -12,6 +14,14 @@ public interface ReviewService {
 
 	Review createReview(@RequestBody Review body);
 
+	/**
+	 * Creates several reviews in one bulk write, used when events are consumed in batches.
+	 *
+	 * @param body
+	 * @return the created reviews
+	 */
+	List<Review> createReviews(List<Review> body);
+
 	/**
 	 * Sample usage: curl $HOST:$PORT/review?productId=1
 	 *
@@ -21,5 +31,22 @@ public interface ReviewService {
 	@GetMapping(value = "/review", produces = "application/json")
 	Flux<Review> getReviews(@RequestHeader HttpHeaders headers, @RequestParam(value = "productId", required = true) int productId);
 
+	/**
+	 * Sample usage: curl -H "Accept: application/x-ndjson" $HOST:$PORT/reviews?productIds=1,2,3
+	 *
+	 * @param productIds
+	 * @return the reviews of all the given products.
+	 *         Streamed as newline delimited JSON if requested, else collected into a JSON array
+	 */
+	@GetMapping(value = "/reviews", produces = { "application/x-ndjson", "application/json" })
+	Flux<Review> getReviewsByProductIds(@RequestHeader HttpHeaders headers, @RequestParam(value = "productIds", required = true) List<Integer> productIds);
+
 	void deleteReviews(@RequestParam(value = "productId", required = true) int productId);
+
+	/**
+	 * Deletes the reviews of several productIds with one multi-key delete, used when events are consumed in batches.
+	 *
+	 * @param productIds
+	 */
+	void deleteReviewsByProductIds(List<Integer> productIds);
 }
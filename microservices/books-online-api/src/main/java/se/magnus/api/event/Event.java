@@ -1,19 +1,33 @@
 package se.magnus.api.event;
 
 import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.time.LocalDateTime.now;
 
 public class Event<K, T> {
 
-    public enum Type {CREATE, DELETE}
+    /**
+     * PRODUCT_AGGREGATE_CREATED carries a whole ProductAggregate, every core service creates its part of it.
+     */
+    public enum Type {CREATE, DELETE, PRODUCT_AGGREGATE_CREATED}
 
+    /**
+     * Starts at the creation time of the producer, so the sequence keeps increasing across its restarts.
+     */
+    private static final AtomicLong SEQUENCE = new AtomicLong(System.currentTimeMillis() << 20);
+
+    private String eventId;
+    private long sequence;
     private Event.Type eventType;
     private K key;
     private T data;
     private LocalDateTime eventCreatedAt;
 
     public Event() {
+        this.eventId = null;
+        this.sequence = 0;
         this.eventType = null;
         this.key = null;
         this.data = null;
@@ -21,12 +35,28 @@ public class Event<K, T> {
     }
 
     public Event(Type eventType, K key, T data) {
+        this.eventId = UUID.randomUUID().toString();
+        this.sequence = SEQUENCE.incrementAndGet();
         this.eventType = eventType;
         this.key = key;
         this.data = data;
         this.eventCreatedAt = now();
     }
 
+    /**
+     * Unique id of the event, the same for every delivery of it, null for events of older producers.
+     */
+    public String getEventId() {
+        return eventId;
+    }
+
+    /**
+     * Increases with every event created by a producer.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
     public Type getEventType() {
         return eventType;
     }
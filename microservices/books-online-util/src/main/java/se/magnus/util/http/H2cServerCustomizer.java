@@ -0,0 +1,30 @@
+package se.magnus.util.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.stereotype.Component;
+
+import reactor.netty.http.HttpProtocol;
+
+/**
+ * Accepts HTTP/2 cleartext (h2c, with prior knowledge or upgrade) next to HTTP/1.1 when server.http2.enabled is set
+ * without SSL. Spring Boot only enables HTTP/2 on Netty together with SSL, while the calls between the services are
+ * plain HTTP inside the cluster.
+ */
+@Component
+@ConditionalOnProperty(name = "server.http2.enabled", havingValue = "true")
+public class H2cServerCustomizer implements WebServerFactoryCustomizer<NettyReactiveWebServerFactory> {
+    private static final Logger LOG = LoggerFactory.getLogger(H2cServerCustomizer.class);
+
+    @Override
+    public void customize(NettyReactiveWebServerFactory factory) {
+        if (factory.getSsl() != null && factory.getSsl().isEnabled()) {
+            return;
+        }
+        LOG.info("Accepting HTTP/1.1 and h2c");
+        factory.addServerCustomizers(server -> server.protocol(HttpProtocol.HTTP11, HttpProtocol.H2C));
+    }
+}
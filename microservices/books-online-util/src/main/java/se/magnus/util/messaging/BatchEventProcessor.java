@@ -0,0 +1,223 @@
+package se.magnus.util.messaging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.event.Event;
+import se.magnus.util.exceptions.EventProcessingException;
+import se.magnus.util.exceptions.InvalidInputException;
+
+/**
+ * Processes a batch of events of a core service, a subclass only writes the items of type T it stores.
+ *
+ * CREATE and PRODUCT_AGGREGATE_CREATED events are written with one bulk insert and DELETE events with one multi-key delete.
+ * Events for the same productId are applied in the order they were received, pending writes are flushed before an event that conflicts with them is added.
+ * Events processed before, e.g. redelivered after a restart, are skipped, see {@link EventDeduplicator}.
+ * If a bulk write fails its events are processed one by one, so a single bad event does not send the whole batch to the DLQ.
+ * With more than one lane a batch is split by productId and the lanes are written concurrently, see {@link KeyPartitionedExecutor}.
+ */
+public abstract class BatchEventProcessor<T> {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+
+    private final Class<T> itemType;
+
+    private final ObjectMapper mapper;
+
+    private final ObjectMapper smileMapper;
+
+    private final JavaType eventType;
+
+    private final KeyPartitionedExecutor lanes;
+
+    private final EventDeduplicator deduplicator;
+
+    private final EventProcessingMetrics metrics;
+
+    /**
+     * @param name names the items in log messages and the threads of the lanes
+     */
+    protected BatchEventProcessor(String name, Class<T> itemType, ObjectMapper mapper, SmileMessageConverter smileConverter, EventDeduplicator deduplicator,
+            EventProcessingMetrics metrics, int lanes) {
+        this.name = name;
+        this.itemType = itemType;
+        this.mapper = mapper;
+        this.smileMapper = smileConverter.getObjectMapper();
+        this.deduplicator = deduplicator;
+        this.metrics = metrics;
+        this.eventType = mapper.getTypeFactory().constructParametricType(Event.class, Integer.class, JsonNode.class);
+        this.lanes = new KeyPartitionedExecutor(name + "-events", lanes);
+        log.info("Processes event batches on {} lanes", lanes);
+    }
+
+    /**
+     * Binders hand over a batch either as raw payloads or as already converted objects, both are accepted.
+     * Raw payloads may be JSON or Smile, see {@link SmileMessageConverter}.
+     */
+    protected void processBatch(List<Object> payloads) {
+
+        log.debug("Process batch of {} messages...", payloads.size());
+
+        List<Event<Integer, JsonNode>> events = new ArrayList<>(payloads.size());
+        Set<String> eventIds = new HashSet<>();
+        for (Object payload : payloads) {
+            Event<Integer, JsonNode> event = toEvent(payload);
+            metrics.recordLag(event.getEventCreatedAt());
+            String eventId = event.getEventId();
+            if (deduplicator.isDuplicate(eventId) || (eventId != null && !eventIds.add(eventId))) {
+                log.debug("Skips duplicate event: {}", eventId);
+                continue;
+            }
+            events.add(event);
+        }
+        metrics.process(events.size(), () -> lanes.execute(events, Event::getKey, this::processLane));
+        events.forEach(event -> deduplicator.markProcessed(event.getEventId()));
+
+        log.debug("Batch processing done!");
+    }
+
+    @PreDestroy
+    public void close() {
+        lanes.close();
+    }
+
+    /**
+     * @return the items of this service that are part of the aggregate
+     */
+    protected abstract List<T> fromAggregate(ProductAggregate aggregate);
+
+    protected abstract int productId(T item);
+
+    /**
+     * Creates the items with one bulk write.
+     */
+    protected abstract void createAll(List<T> items);
+
+    protected abstract void create(T item);
+
+    /**
+     * Deletes the items of the productIds with one multi-key delete.
+     */
+    protected abstract void deleteAll(List<Integer> productIds);
+
+    protected abstract void delete(int productId);
+
+    private void processLane(List<Event<Integer, JsonNode>> events) {
+
+        PendingWrites pending = new PendingWrites();
+        for (Event<Integer, JsonNode> event : events) {
+            Integer productId = event.getKey();
+
+            switch (event.getEventType()) {
+
+            case CREATE:
+                if (pending.deleteKeys.contains(productId)) {
+                    pending.flush();
+                }
+                pending.creates.add(mapper.convertValue(event.getData(), itemType));
+                pending.createKeys.add(productId);
+                break;
+
+            case DELETE:
+                if (pending.createKeys.contains(productId)) {
+                    pending.flush();
+                }
+                pending.deleteKeys.add(productId);
+                break;
+
+            case PRODUCT_AGGREGATE_CREATED:
+                if (pending.deleteKeys.contains(productId)) {
+                    pending.flush();
+                }
+                pending.creates.addAll(fromAggregate(mapper.convertValue(event.getData(), ProductAggregate.class)));
+                pending.createKeys.add(productId);
+                break;
+
+            default:
+                log.error("Incorrect event type: {}, expected a CREATE, DELETE or PRODUCT_AGGREGATE_CREATED event, skips it", event.getEventType());
+            }
+        }
+        pending.flush();
+    }
+
+    private class PendingWrites {
+
+        private final List<T> creates = new ArrayList<>();
+
+        private final Set<Integer> createKeys = new HashSet<>();
+
+        private final Set<Integer> deleteKeys = new LinkedHashSet<>();
+
+        private void flush() {
+
+            if (!deleteKeys.isEmpty()) {
+                List<Integer> productIds = new ArrayList<>(deleteKeys);
+                try {
+                    log.debug("Delete {} items of {} productIds", name, productIds.size());
+                    deleteAll(productIds);
+                } catch (RuntimeException re) {
+                    log.warn("Bulk delete failed: {}, will delete one productId at a time", re.toString());
+                    productIds.forEach(productId -> processOne(() -> delete(productId), productId));
+                }
+                deleteKeys.clear();
+            }
+
+            if (!creates.isEmpty()) {
+                List<T> items = new ArrayList<>(creates);
+                try {
+                    log.debug("Create {} {} items", items.size(), name);
+                    createAll(items);
+                } catch (RuntimeException re) {
+                    log.warn("Bulk create failed: {}, will create one {} at a time", re.toString(), name);
+                    items.forEach(item -> processOne(() -> create(item), productId(item)));
+                }
+                creates.clear();
+                createKeys.clear();
+            }
+        }
+    }
+
+    /**
+     * Invalid input, e.g. a duplicate key, will fail on every retry and is logged and skipped.
+     * Other errors are rethrown so the binder retries the batch.
+     */
+    private void processOne(Runnable operation, int productId) {
+        try {
+            operation.run();
+        } catch (InvalidInputException iie) {
+            log.error("Skips event for productId: {}, processing failed: {}", productId, iie.getMessage());
+        }
+    }
+
+    private Event<Integer, JsonNode> toEvent(Object payload) {
+        try {
+            if (payload instanceof byte[]) {
+                byte[] bytes = (byte[]) payload;
+                return (SmileMessageConverter.isSmile(bytes) ? smileMapper : mapper).readValue(bytes, eventType);
+            }
+            if (payload instanceof String) {
+                return mapper.readValue((String) payload, eventType);
+            }
+            return mapper.convertValue(payload, eventType);
+
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new EventProcessingException("Failed to read event: " + ex.getMessage(), ex);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package se.magnus.util.messaging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Remembers the ids of processed events for retentionSec, so redelivered events are skipped before they reach the database.
+ *
+ * The ids are kept as 64-bit hashes in open addressing sets of primitive longs, one per time bucket, a full or expired
+ * bucket is replaced by a new one and the oldest is dropped, so memory is bounded by maxEntries. Unlike a Bloom filter
+ * a set of hashes has no false positives worth mentioning at this size, a false positive would skip a real event.
+ * An event is only remembered after it is processed, a failed event is retried. With file set the sets are written to
+ * the file every persistIntervalSec and on shutdown and read on startup, so a restart does not forget the recent events.
+ * Events processed after the last write are forgotten by a crash, their redeliveries are processed again and rely on
+ * idempotent writes, the file only narrows that window.
+ *
+ * Published as the events.deduplication counter, tagged duplicate true or false.
+ */
+@Component
+public class EventDeduplicator {
+    private static final Logger LOG = LoggerFactory.getLogger(EventDeduplicator.class);
+
+    private static final int FILE_MAGIC = 0x45444431;
+
+    private final boolean enabled;
+
+    private final long bucketMillis;
+
+    private final int bucketCount;
+
+    private final int bucketCapacity;
+
+    private final Path file;
+
+    private final Deque<Bucket> buckets = new ArrayDeque<>();
+
+    private final Counter duplicates;
+
+    private final Counter unique;
+
+    private final ScheduledExecutorService persister;
+
+    @Autowired
+    public EventDeduplicator(
+            MeterRegistry registry,
+            @Value("${app.streaming.deduplication.enabled:true}") boolean enabled,
+            @Value("${app.streaming.deduplication.retentionSec:3600}") int retentionSec,
+            @Value("${app.streaming.deduplication.buckets:6}") int bucketCount,
+            @Value("${app.streaming.deduplication.maxEntries:200000}") int maxEntries,
+            @Value("${app.streaming.deduplication.file:}") String file,
+            @Value("${app.streaming.deduplication.persistIntervalSec:30}") int persistIntervalSec) {
+
+        this.enabled = enabled;
+        this.bucketCount = bucketCount;
+        this.bucketMillis = Duration.ofSeconds(retentionSec).toMillis() / bucketCount;
+        this.bucketCapacity = Math.max(1, maxEntries / bucketCount);
+        this.file = file.isEmpty() ? null : Paths.get(file);
+
+        duplicates = Counter.builder("events.deduplication").description("Checked events by whether they were processed before").tag("duplicate", "true").register(registry);
+        unique = Counter.builder("events.deduplication").description("Checked events by whether they were processed before").tag("duplicate", "false").register(registry);
+
+        if (enabled && this.file != null) {
+            load();
+            persister = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-deduplicator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            persister.scheduleWithFixedDelay(this::persist, persistIntervalSec, persistIntervalSec, TimeUnit.SECONDS);
+        } else {
+            persister = null;
+        }
+
+        LOG.info("Event deduplication enabled: {}, retentionSec: {}, buckets: {}, maxEntries: {}, file: {}", enabled, retentionSec, bucketCount, maxEntries, this.file);
+    }
+
+    /**
+     * @return true if an event with the id was processed before, events without an id are never duplicates
+     */
+    public boolean isDuplicate(String eventId) {
+        if (!enabled || eventId == null) {
+            return false;
+        }
+
+        long hash = hash(eventId);
+        boolean duplicate;
+        synchronized (this) {
+            duplicate = buckets.stream().anyMatch(bucket -> bucket.contains(hash));
+        }
+        (duplicate ? duplicates : unique).increment();
+        return duplicate;
+    }
+
+    public void markProcessed(String eventId) {
+        if (!enabled || eventId == null) {
+            return;
+        }
+
+        long hash = hash(eventId);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Bucket current = buckets.peekLast();
+            if (current == null || current.size == bucketCapacity || now - current.createdAtMillis >= bucketMillis) {
+                current = new Bucket(now, bucketCapacity);
+                buckets.addLast(current);
+                while (buckets.size() > bucketCount) {
+                    buckets.removeFirst();
+                }
+            }
+            current.add(hash);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (persister != null) {
+            persister.shutdown();
+            persist();
+        }
+    }
+
+    private synchronized void persist() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(buckets.size());
+                for (Bucket bucket : buckets) {
+                    bucket.writeTo(out);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            LOG.warn("Could not persist the processed event ids to {}: {}", file, ex.toString());
+        }
+    }
+
+    private synchronized void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long expiredBefore = System.currentTimeMillis() - bucketMillis * bucketCount;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                LOG.warn("Ignores {}, it does not contain processed event ids", file);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Bucket bucket = Bucket.readFrom(in, bucketCapacity);
+                if (bucket.createdAtMillis >= expiredBefore) {
+                    buckets.addLast(bucket);
+                }
+            }
+            while (buckets.size() > bucketCount) {
+                buckets.removeFirst();
+            }
+            LOG.info("Loaded {} processed event ids from {}", buckets.stream().mapToInt(bucket -> bucket.size).sum(), file);
+        } catch (IOException ex) {
+            LOG.warn("Could not load the processed event ids from {}: {}", file, ex.toString());
+            buckets.clear();
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a, 0 marks an empty slot and is mapped to 1.
+     */
+    static long hash(String eventId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < eventId.length(); i++) {
+            hash ^= eventId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Open addressing set of non-zero longs with linear probing, kept at most half full.
+     */
+    private static final class Bucket {
+
+        final long createdAtMillis;
+
+        final long[] slots;
+
+        int size;
+
+        Bucket(long createdAtMillis, int capacity) {
+            this.createdAtMillis = createdAtMillis;
+            this.slots = new long[Integer.highestOneBit(Math.max(capacity, 1)) << 2];
+        }
+
+        boolean contains(long hash) {
+            int mask = slots.length - 1;
+            for (int i = index(hash, mask); slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == hash) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(long hash) {
+            int mask = slots.length - 1;
+            int i = index(hash, mask);
+            while (slots[i] != 0) {
+                if (slots[i] == hash) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = hash;
+            size++;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(createdAtMillis);
+            out.writeInt(size);
+            for (long slot : slots) {
+                if (slot != 0) {
+                    out.writeLong(slot);
+                }
+            }
+        }
+
+        static Bucket readFrom(DataInputStream in, int capacity) throws IOException {
+            Bucket bucket = new Bucket(in.readLong(), capacity);
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                long hash = in.readLong();
+                if (bucket.size < capacity) {
+                    bucket.add(hash);
+                }
+            }
+            return bucket;
+        }
+
+        private static int index(long hash, int mask) {
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
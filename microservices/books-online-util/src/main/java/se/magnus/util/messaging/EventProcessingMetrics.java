@@ -0,0 +1,181 @@
+package se.magnus.util.messaging;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController.State;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metrics of the event consumer of a core service and backpressure towards the message broker.
+ *
+ * Published per destination of the input binding:
+ * <ul>
+ * <li>events.processing: timer of every listener call, tagged result success or failure, for latency, throughput and error rate</li>
+ * <li>events.lag: time from the creation of an event by the composite until it is processed</li>
+ * <li>events.batch.size, events.inflight: events per listener call and events being processed right now</li>
+ * <li>events.consumer.paused, events.consumer.pauses: whether the binding is paused by backpressure and how often it was</li>
+ * </ul>
+ * The depth of the queue itself is reported by the broker, the Kafka binder publishes the consumer lag per partition.
+ *
+ * When the average processing time per event exceeds latencyThresholdMs the binding is paused for pauseSec, so
+ * the events wait in the broker instead of piling up on a slow database. The duration of a listener call is divided by
+ * its events, so a healthy batch is not mistaken for a slow event. The RabbitMQ binder can only stop a binding,
+ * pauseState PAUSED keeps the partitions of a Kafka consumer assigned while it pauses.
+ */
+@Component
+public class EventProcessingMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(EventProcessingMetrics.class);
+
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final String binding;
+
+    private final ObjectProvider<BindingsLifecycleController> bindings;
+
+    private final boolean backpressure;
+
+    private final long latencyThresholdNanos;
+
+    private final int pauseSec;
+
+    private final State pauseState;
+
+    private final Timer succeeded;
+
+    private final Timer failed;
+
+    private final Timer lag;
+
+    private final DistributionSummary batchSize;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private final AtomicBoolean paused = new AtomicBoolean();
+
+    private final Counter pauses;
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile double averageLatencyNanos;
+
+    @Autowired
+    public EventProcessingMetrics(
+            MeterRegistry registry,
+            Environment environment,
+            ObjectProvider<BindingsLifecycleController> bindings,
+            @Value("${app.streaming.backpressure.binding:input}") String binding,
+            @Value("${app.streaming.backpressure.enabled:true}") boolean backpressure,
+            @Value("${app.streaming.backpressure.latencyThresholdMs:200}") int latencyThresholdMs,
+            @Value("${app.streaming.backpressure.pauseSec:5}") int pauseSec,
+            @Value("${app.streaming.backpressure.pauseState:STOPPED}") State pauseState) {
+
+        this.binding = binding;
+        this.bindings = bindings;
+        this.backpressure = backpressure;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+        this.pauseSec = pauseSec;
+        this.pauseState = pauseState;
+
+        String destination = environment.getProperty("spring.cloud.stream.bindings." + binding + ".destination", binding);
+        succeeded = Timer.builder("events.processing").description("Listener calls of the event consumer").tag("destination", destination).tag("result", "success").register(registry);
+        failed = Timer.builder("events.processing").description("Listener calls of the event consumer").tag("destination", destination).tag("result", "failure").register(registry);
+        lag = Timer.builder("events.lag").description("Time from the creation of an event until it is processed").tag("destination", destination).register(registry);
+        batchSize = DistributionSummary.builder("events.batch.size").description("Events per listener call").tag("destination", destination).register(registry);
+        Gauge.builder("events.inflight", inflight, AtomicInteger::get).description("Events being processed").tag("destination", destination).register(registry);
+        Gauge.builder("events.consumer.paused", paused, p -> p.get() ? 1 : 0).description("1 while the consumer is paused by backpressure").tag("destination", destination).register(registry);
+        pauses = Counter.builder("events.consumer.pauses").description("Pauses of the consumer by backpressure").tag("destination", destination).register(registry);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-backpressure");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LOG.info("Event processing metrics of {}, backpressure: {}, latencyThresholdMs: {}, pauseSec: {}, pauseState: {}", destination, backpressure, latencyThresholdMs,
+                pauseSec, pauseState);
+    }
+
+    /**
+     * Runs a listener call that processes the given number of events and records its duration and result.
+     */
+    public void process(int events, Runnable processing) {
+        batchSize.record(events);
+        inflight.addAndGet(events);
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            processing.run();
+            success = true;
+        } finally {
+            long duration = System.nanoTime() - start;
+            inflight.addAndGet(-events);
+            (success ? succeeded : failed).record(duration, TimeUnit.NANOSECONDS);
+            onLatency(duration / Math.max(1, events));
+        }
+    }
+
+    public void recordLag(LocalDateTime eventCreatedAt) {
+        if (eventCreatedAt != null) {
+            lag.record(Duration.between(eventCreatedAt, LocalDateTime.now()));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void onLatency(long eventNanos) {
+        double average = averageLatencyNanos;
+        averageLatencyNanos = average == 0 ? eventNanos : average + LATENCY_WEIGHT * (eventNanos - average);
+        if (!backpressure || averageLatencyNanos <= latencyThresholdNanos || !paused.compareAndSet(false, true)) {
+            return;
+        }
+
+        // the binding is changed on another thread, a listener container can not stop its own consumer thread
+        pauses.increment();
+        LOG.warn("Pauses binding {} for {} s, average processing time per event {} ms exceeds the threshold", binding, pauseSec, TimeUnit.NANOSECONDS.toMillis((long) averageLatencyNanos));
+        scheduler.execute(() -> changeState(pauseState));
+        scheduler.schedule(() -> {
+            // the calls after the pause decide again, one slow call does not pause the binding right away
+            averageLatencyNanos = latencyThresholdNanos / 2.0;
+            changeState(pauseState == State.PAUSED ? State.RESUMED : State.STARTED);
+            paused.set(false);
+            LOG.info("Resumed binding {}", binding);
+        }, pauseSec, TimeUnit.SECONDS);
+    }
+
+    private void changeState(State state) {
+        BindingsLifecycleController controller = bindings.getIfAvailable();
+        if (controller == null) {
+            LOG.warn("Can not change binding {} to {}, no bindings are available", binding, state);
+            return;
+        }
+        try {
+            controller.changeState(binding, state);
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not change binding {} to {}: {}", binding, state, ex.toString());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package se.magnus.util.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Processes a batch of events on parallel lanes, the events of one key always go to the same lane, in the order of the
+ * batch, so the events of a product are still applied in order while different products are written concurrently.
+ *
+ * A call returns when every lane is done and rethrows the first failure, so the batch is acknowledged or retried
+ * by the binder as a whole and nothing is held across batches, a partition rebalance between two batches is safe.
+ * With a single lane the batch is processed on the calling thread.
+ */
+public class KeyPartitionedExecutor implements AutoCloseable {
+
+    private final int lanes;
+
+    private final ExecutorService executor;
+
+    public KeyPartitionedExecutor(String name, int lanes) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("Invalid lanes: " + lanes + ", expected at least 1");
+        }
+        this.lanes = lanes;
+        this.executor = lanes == 1 ? null : Executors.newFixedThreadPool(lanes, threadFactory(name));
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    public <T> void execute(List<T> items, Function<T, ?> key, Consumer<List<T>> lane) {
+        if (executor == null) {
+            lane.accept(items);
+            return;
+        }
+
+        List<List<T>> partitions = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (T item : items) {
+            partitions.get(Math.floorMod(key.apply(item).hashCode(), lanes)).add(item);
+        }
+
+        List<Future<?>> futures = new ArrayList<>(lanes);
+        for (List<T> partition : partitions) {
+            if (!partition.isEmpty()) {
+                futures.add(executor.submit(() -> lane.accept(partition)));
+            }
+        }
+
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : new IllegalStateException(ex.getCause());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new IllegalStateException("Interrupted while processing a batch of " + items.size() + " events", ex);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-lane-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
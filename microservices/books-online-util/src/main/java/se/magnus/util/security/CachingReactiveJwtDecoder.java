@@ -0,0 +1,31 @@
+package se.magnus.util.security;
+
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Verifies a token with the delegate only if it is not in the {@link JwtValidationCache}.
+ */
+public class CachingReactiveJwtDecoder implements ReactiveJwtDecoder {
+
+    private final ReactiveJwtDecoder delegate;
+
+    private final JwtValidationCache cache;
+
+    public CachingReactiveJwtDecoder(ReactiveJwtDecoder delegate, JwtValidationCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public Mono<Jwt> decode(String token) throws JwtException {
+        Jwt jwt = cache.get(token);
+        if (jwt != null) {
+            return Mono.just(jwt);
+        }
+        return delegate.decode(token).doOnNext(decoded -> cache.put(token, decoded));
+    }
+}
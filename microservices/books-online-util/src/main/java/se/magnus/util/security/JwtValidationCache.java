@@ -0,0 +1,92 @@
+package se.magnus.util.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded cache of the validated JWTs of incoming requests, so the signature of a token is verified once instead of on every request.
+ *
+ * The key is the SHA-256 hash of the token, the token itself is not kept as key. An entry expires after maxTtlSec, and never
+ * later than the exp claim of its token, tokens without exp are not cached. Only tokens that passed validation are stored.
+ * Registered as a bean by the security configuration of each service, with the settings under its own prefix.
+ */
+public class JwtValidationCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JwtValidationCache.class);
+
+    private static final String CACHE_NAME = "jwtValidations";
+
+    private final boolean enabled;
+
+    private final Cache<String, Jwt> cache;
+
+    public JwtValidationCache(MeterRegistry registry, boolean enabled, long maxSize, int maxTtlSec) {
+
+        Duration maxTtl = Duration.ofSeconds(maxTtlSec);
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Jwt>() {
+
+                    @Override
+                    public long expireAfterCreate(String key, Jwt jwt, long currentTime) {
+                        Duration untilExpiry = Duration.between(Instant.now(), jwt.getExpiresAt());
+                        return Math.max(0, (untilExpiry.compareTo(maxTtl) < 0 ? untilExpiry : maxTtl).toNanos());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Jwt jwt, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, jwt, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Jwt jwt, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+        LOG.info("JWT validation cache enabled: {}, maxSize: {}, maxTtlSec: {}", enabled, maxSize, maxTtlSec);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Jwt get(String token) {
+        return cache.getIfPresent(key(token));
+    }
+
+    public void put(String token, Jwt jwt) {
+        if (jwt.getExpiresAt() != null && jwt.getExpiresAt().isAfter(Instant.now())) {
+            cache.put(key(token), jwt);
+        }
+    }
+
+    private static String key(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+}
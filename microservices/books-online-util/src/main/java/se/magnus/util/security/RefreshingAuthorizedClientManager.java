@@ -0,0 +1,104 @@
+package se.magnus.util.security;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Keeps the authorized client of every registration and principal in memory and renews its access token before it expires.
+ *
+ * While the token is valid for longer than refreshBefore it is returned without asking the delegate. Within refreshBefore
+ * (minus a random part of refreshJitter, so the instances of the service do not all renew at the same time) the current token is
+ * still returned and one renewal is started in the background. Only a caller without a valid token waits for the renewal,
+ * concurrent callers share the same one instead of each fetching a token. The delegate must renew tokens that expire within
+ * refreshBefore plus refreshJitter, see the clock skew of its authorized client provider.
+ */
+public class RefreshingAuthorizedClientManager implements ReactiveOAuth2AuthorizedClientManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshingAuthorizedClientManager.class);
+
+    private final ReactiveOAuth2AuthorizedClientManager delegate;
+
+    private final Duration refreshBefore;
+
+    private final Duration refreshJitter;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public RefreshingAuthorizedClientManager(ReactiveOAuth2AuthorizedClientManager delegate, Duration refreshBefore, Duration refreshJitter) {
+        this.delegate = delegate;
+        this.refreshBefore = refreshBefore;
+        this.refreshJitter = refreshJitter;
+    }
+
+    @Override
+    public Mono<OAuth2AuthorizedClient> authorize(OAuth2AuthorizeRequest request) {
+        // an explicitly given client is re-authorized by the delegate, e.g. after the server rejected its token
+        if (request.getAuthorizedClient() != null) {
+            return delegate.authorize(request);
+        }
+
+        Entry entry = entries.computeIfAbsent(request.getClientRegistrationId() + ":" + request.getPrincipal().getName(), key -> new Entry());
+        OAuth2AuthorizedClient client = entry.client;
+        if (client != null) {
+            Instant expiresAt = client.getAccessToken().getExpiresAt();
+            Instant now = Instant.now();
+            if (expiresAt == null || now.isBefore(entry.refreshAt)) {
+                return Mono.just(client);
+            }
+            if (now.isBefore(expiresAt)) {
+                entry.renew(request).subscribe(null, ex -> LOG.warn("Renewal of the access token of {} failed: {}", request.getClientRegistrationId(), ex.toString()));
+                return Mono.just(client);
+            }
+        }
+        return entry.renew(request);
+    }
+
+    private class Entry {
+
+        private final AtomicReference<Mono<OAuth2AuthorizedClient>> renewal = new AtomicReference<>();
+
+        private volatile OAuth2AuthorizedClient client;
+
+        private volatile Instant refreshAt;
+
+        Mono<OAuth2AuthorizedClient> renew(OAuth2AuthorizeRequest request) {
+            for (;;) {
+                Mono<OAuth2AuthorizedClient> current = renewal.get();
+                if (current != null) {
+                    return current;
+                }
+
+                AtomicReference<Mono<OAuth2AuthorizedClient>> self = new AtomicReference<>();
+                Mono<OAuth2AuthorizedClient> created = delegate.authorize(request)
+                        .doOnNext(this::update)
+                        .doFinally(signal -> renewal.compareAndSet(self.get(), null))
+                        .cache();
+                self.set(created);
+                if (renewal.compareAndSet(null, created)) {
+                    return created;
+                }
+            }
+        }
+
+        private void update(OAuth2AuthorizedClient authorized) {
+            Instant expiresAt = authorized.getAccessToken().getExpiresAt();
+            if (expiresAt != null) {
+                long jitterMillis = refreshJitter.isZero() ? 0 : ThreadLocalRandom.current().nextLong(refreshJitter.toMillis() + 1);
+                refreshAt = expiresAt.minus(refreshBefore).minusMillis(jitterMillis);
+            }
+            client = authorized;
+        }
+    }
+}
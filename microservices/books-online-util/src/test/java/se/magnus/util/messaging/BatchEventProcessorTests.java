@@ -0,0 +1,120 @@
+package se.magnus.util.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static se.magnus.api.event.Event.Type.CREATE;
+import static se.magnus.api.event.Event.Type.DELETE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController.State;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.event.Event;
+import se.magnus.util.exceptions.InvalidInputException;
+
+public class BatchEventProcessorTests {
+
+	private final ObjectMapper mapper = new Jackson2ObjectMapperBuilder().build();
+
+	@Test
+	public void TestKeepsOrderOfEventsPerProduct() {
+
+		RecordingProcessor processor = new RecordingProcessor();
+		processor.processBatch(List.of(
+				new Event<>(CREATE, 1, new Product(1, "a", 1, null)),
+				new Event<>(DELETE, 1, null),
+				new Event<>(CREATE, 2, new Product(2, "b", 1, null))));
+
+		// the delete of product 1 flushes its pending create first
+		assertThat(processor.operations).containsExactly("createAll [1]", "deleteAll [1]", "createAll [2]");
+		processor.close();
+	}
+
+	@Test
+	public void TestSkipsDuplicateEvents() {
+
+		RecordingProcessor processor = new RecordingProcessor();
+		Event<Integer, Product> event = new Event<>(CREATE, 1, new Product(1, "a", 1, null));
+		processor.processBatch(List.of(event, event));
+		processor.processBatch(List.of(event));
+
+		assertThat(processor.operations).containsExactly("createAll [1]");
+		processor.close();
+	}
+
+	@Test
+	public void TestFallsBackToSingleWrites() {
+
+		RecordingProcessor processor = new RecordingProcessor();
+		processor.failBulk = true;
+		processor.processBatch(List.of(
+				new Event<>(CREATE, 1, new Product(1, "a", 1, null)),
+				new Event<>(CREATE, 2, new Product(2, "b", 1, null))));
+
+		// the invalid product 1 is skipped, product 2 is still created
+		assertThat(processor.operations).containsExactly("create 2");
+		processor.close();
+	}
+
+	private class RecordingProcessor extends BatchEventProcessor<Product> {
+
+		private final List<String> operations = new ArrayList<>();
+
+		private boolean failBulk;
+
+		RecordingProcessor() {
+			super("product", Product.class, mapper, new SmileMessageConverter(new Jackson2ObjectMapperBuilder()),
+					new EventDeduplicator(new SimpleMeterRegistry(), true, 3600, 6, 1000, "", 30),
+					new EventProcessingMetrics(new SimpleMeterRegistry(), new StandardEnvironment(),
+							new StaticListableBeanFactory().getBeanProvider(BindingsLifecycleController.class), "input", false, 200, 5, State.STOPPED),
+					1);
+		}
+
+		@Override
+		protected List<Product> fromAggregate(ProductAggregate aggregate) {
+			return List.of(new Product(aggregate.getProductId(), aggregate.getName(), aggregate.getWeight(), null));
+		}
+
+		@Override
+		protected int productId(Product product) {
+			return product.getProductId();
+		}
+
+		@Override
+		protected void createAll(List<Product> products) {
+			if (failBulk) {
+				throw new IllegalStateException("bulk write failed");
+			}
+			operations.add("createAll " + products.stream().map(Product::getProductId).collect(Collectors.toList()));
+		}
+
+		@Override
+		protected void create(Product product) {
+			if (product.getProductId() == 1) {
+				throw new InvalidInputException("Duplicate key, Product Id: 1");
+			}
+			operations.add("create " + product.getProductId());
+		}
+
+		@Override
+		protected void deleteAll(List<Integer> productIds) {
+			operations.add("deleteAll " + productIds);
+		}
+
+		@Override
+		protected void delete(int productId) {
+			operations.add("delete " + productId);
+		}
+	}
+}
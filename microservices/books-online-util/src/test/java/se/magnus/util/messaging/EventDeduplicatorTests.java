@@ -0,0 +1,60 @@
+package se.magnus.util.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class EventDeduplicatorTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void TestSkipsProcessedEvents() {
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		EventDeduplicator deduplicator = new EventDeduplicator(registry, true, 3600, 6, 1000, "", 30);
+
+		assertThat(deduplicator.isDuplicate("a")).isFalse();
+		// a failed event is not remembered
+		assertThat(deduplicator.isDuplicate("a")).isFalse();
+		deduplicator.markProcessed("a");
+		assertThat(deduplicator.isDuplicate("a")).isTrue();
+		assertThat(deduplicator.isDuplicate(null)).isFalse();
+
+		assertThat(registry.get("events.deduplication").tag("duplicate", "true").counter().count()).isEqualTo(1);
+		assertThat(registry.get("events.deduplication").tag("duplicate", "false").counter().count()).isEqualTo(2);
+	}
+
+	@Test
+	public void TestForgetsOldestBucketWhenFull() {
+
+		EventDeduplicator deduplicator = new EventDeduplicator(new SimpleMeterRegistry(), true, 3600, 2, 20, "", 30);
+
+		for (int i = 0; i < 30; i++) {
+			deduplicator.markProcessed("event-" + i);
+		}
+
+		assertThat(deduplicator.isDuplicate("event-0")).isFalse();
+		assertThat(deduplicator.isDuplicate("event-29")).isTrue();
+	}
+
+	@Test
+	public void TestKeepsProcessedEventsAcrossRestarts() {
+
+		String file = directory.resolve("processed-events").toString();
+		EventDeduplicator deduplicator = new EventDeduplicator(new SimpleMeterRegistry(), true, 3600, 6, 1000, file, 30);
+		deduplicator.markProcessed("a");
+		deduplicator.close();
+
+		EventDeduplicator restarted = new EventDeduplicator(new SimpleMeterRegistry(), true, 3600, 6, 1000, file, 30);
+		assertThat(restarted.isDuplicate("a")).isTrue();
+		assertThat(restarted.isDuplicate("b")).isFalse();
+		restarted.close();
+	}
+}
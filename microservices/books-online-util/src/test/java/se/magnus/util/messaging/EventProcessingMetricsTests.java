@@ -0,0 +1,56 @@
+package se.magnus.util.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController.State;
+import org.springframework.core.env.StandardEnvironment;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class EventProcessingMetricsTests {
+
+	@Test
+	public void TestBatchIsMeasuredPerEvent() {
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		EventProcessingMetrics metrics = metrics(registry, 5);
+
+		// 100 events in 100 ms are 1 ms per event, far below the threshold although the call took longer
+		for (int i = 0; i < 5; i++) {
+			metrics.process(100, () -> sleep(100));
+		}
+
+		assertThat(registry.get("events.consumer.pauses").counter().count()).isEqualTo(0);
+		assertThat(registry.get("events.batch.size").summary().count()).isEqualTo(5);
+		metrics.close();
+	}
+
+	@Test
+	public void TestSlowEventsPauseConsumer() {
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		EventProcessingMetrics metrics = metrics(registry, 5);
+
+		metrics.process(2, () -> sleep(40));
+
+		assertThat(registry.get("events.consumer.pauses").counter().count()).isEqualTo(1);
+		assertThat(registry.get("events.consumer.paused").gauge().value()).isEqualTo(1);
+		metrics.close();
+	}
+
+	private static EventProcessingMetrics metrics(SimpleMeterRegistry registry, int latencyThresholdMs) {
+		return new EventProcessingMetrics(registry, new StandardEnvironment(), new StaticListableBeanFactory().getBeanProvider(BindingsLifecycleController.class),
+				"input", true, latencyThresholdMs, 60, State.STOPPED);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package se.magnus.util.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+public class KeyPartitionedExecutorTests {
+
+	@Test
+	public void TestKeepsOrderPerKey() {
+
+		List<int[]> events = new ArrayList<>();
+		for (int sequence = 0; sequence < 1000; sequence++) {
+			events.add(new int[] { sequence % 7, sequence });
+		}
+
+		Map<Integer, List<Integer>> applied = new ConcurrentHashMap<>();
+		try (KeyPartitionedExecutor executor = new KeyPartitionedExecutor("test", 4)) {
+			executor.execute(events, event -> event[0], lane -> lane.forEach(
+					event -> applied.computeIfAbsent(event[0], key -> Collections.synchronizedList(new ArrayList<>())).add(event[1])));
+		}
+
+		assertThat(applied).hasSize(7);
+		applied.values().forEach(sequences -> assertThat(sequences).isSorted());
+		assertThat(applied.values().stream().mapToInt(List::size).sum()).isEqualTo(1000);
+	}
+
+	@Test
+	public void TestRethrowsFailureOfALane() {
+
+		try (KeyPartitionedExecutor executor = new KeyPartitionedExecutor("test", 2)) {
+			assertThatThrownBy(() -> executor.execute(List.of(1, 2, 3), key -> key, lane -> {
+				if (lane.contains(2)) {
+					throw new IllegalStateException("lane failed");
+				}
+			})).isInstanceOf(IllegalStateException.class).hasMessage("lane failed");
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package se.magnus.util.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static se.magnus.util.messaging.SmileMessageConverter.APPLICATION_SMILE;
+import static se.magnus.util.messaging.SmileMessageConverter.SCHEMA_VERSION_HEADER;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.support.MessageBuilder;
+
+public class SmileMessageConverterTests {
+
+	public static class Payload {
+		public int key;
+		public LocalDateTime createdAt;
+	}
+
+	private final SmileMessageConverter converter = new SmileMessageConverter(new Jackson2ObjectMapperBuilder());
+
+	@Test
+	public void TestRoundTrip() {
+
+		Payload payload = new Payload();
+		payload.key = 42;
+		payload.createdAt = LocalDateTime.of(2021, 6, 1, 12, 0);
+
+		Message<?> message = converter.toMessage(payload, new MessageHeaders(Collections.singletonMap(MessageHeaders.CONTENT_TYPE, APPLICATION_SMILE)));
+
+		assertThat(SmileMessageConverter.isSmile((byte[]) message.getPayload())).isTrue();
+		assertThat(message.getHeaders().get(SCHEMA_VERSION_HEADER)).isEqualTo(1);
+
+		Payload read = (Payload) converter.fromMessage(message, Payload.class);
+		assertThat(read.key).isEqualTo(42);
+		assertThat(read.createdAt).isEqualTo(payload.createdAt);
+	}
+
+	@Test
+	public void TestRejectsNewerSchemaVersion() {
+
+		Message<?> message = converter.toMessage(new Payload(), new MessageHeaders(Collections.singletonMap(MessageHeaders.CONTENT_TYPE, APPLICATION_SMILE)));
+		Message<?> newer = MessageBuilder.fromMessage(message).setHeader(SCHEMA_VERSION_HEADER, "2".getBytes()).build();
+
+		assertThatThrownBy(() -> converter.fromMessage(newer, Payload.class)).isInstanceOf(MessageConversionException.class);
+	}
+}
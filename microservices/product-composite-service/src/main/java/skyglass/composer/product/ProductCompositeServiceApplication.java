@@ -2,10 +2,14 @@ package skyglass.composer.product;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+import se.magnus.util.messaging.SmileMessageConverter;
+
 @SpringBootApplication
 @EnableTransactionManagement
+@Import(SmileMessageConverter.class)
 //@EnableGlobalMethodSecurity(prePostEnabled = true)
 //@EnableScheduling
 //@EnableResourceServer
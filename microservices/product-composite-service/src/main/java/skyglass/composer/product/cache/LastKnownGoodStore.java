@@ -0,0 +1,138 @@
+package skyglass.composer.product.cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+
+/**
+ * Last known good responses of the core services, served marked as stale when a core service is not available.
+ *
+ * The responses are kept as JSON in a {@link SlotStore} outside of the Java heap, in a memory-mapped file if file is set,
+ * so they survive restarts of the composite, otherwise in a direct buffer. Every successful response replaces the stored one,
+ * entries older than maxAgeSec are not served any more. The store is bounded, an entry may be replaced by another product.
+ */
+@Component
+public class LastKnownGoodStore {
+
+	public enum Kind {
+		PRODUCT, RECOMMENDATIONS, REVIEWS
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(LastKnownGoodStore.class);
+
+	private final boolean enabled;
+
+	private final long maxAgeMillis;
+
+	private final ObjectMapper mapper;
+
+	private final SlotStore store;
+
+	private final Map<Kind, JavaType> types = new ConcurrentHashMap<>();
+
+	private final Map<Kind, Counter> served = new ConcurrentHashMap<>();
+
+	private final Counter oversized;
+
+	@Autowired
+	public LastKnownGoodStore(
+			ObjectMapper mapper,
+			MeterRegistry registry,
+			@Value("${app.product-composite.last-known-good.enabled:true}") boolean enabled,
+			@Value("${app.product-composite.last-known-good.file:}") String file,
+			@Value("${app.product-composite.last-known-good.slots:8192}") int slots,
+			@Value("${app.product-composite.last-known-good.slotSize:4096}") int slotSize,
+			@Value("${app.product-composite.last-known-good.maxAgeSec:86400}") int maxAgeSec) throws IOException {
+
+		this.enabled = enabled;
+		this.maxAgeMillis = Duration.ofSeconds(maxAgeSec).toMillis();
+		this.mapper = mapper;
+
+		Path path = file.isEmpty() ? null : Paths.get(file);
+		this.store = enabled ? new SlotStore(path, slots, slotSize) : null;
+
+		types.put(Kind.PRODUCT, mapper.getTypeFactory().constructType(Product.class));
+		types.put(Kind.RECOMMENDATIONS, mapper.getTypeFactory().constructType(new TypeReference<List<Recommendation>>() {
+		}));
+		types.put(Kind.REVIEWS, mapper.getTypeFactory().constructType(new TypeReference<List<Review>>() {
+		}));
+		for (Kind kind : Kind.values()) {
+			served.put(kind, Counter.builder("lastknowngood.served").description("Stale responses served because a core service was not available")
+					.tag("kind", kind.name().toLowerCase()).register(registry));
+		}
+		oversized = Counter.builder("lastknowngood.oversized").description("Responses too large to be stored").register(registry);
+
+		LOG.info("Last known good store enabled: {}, file: {}, slots: {}, slotSize: {}, maxAgeSec: {}", enabled, path, slots, slotSize, maxAgeSec);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void put(Kind kind, int productId, Object value) {
+		if (!enabled) {
+			return;
+		}
+
+		try {
+			if (!store.put(key(kind, productId), mapper.writeValueAsBytes(value), System.currentTimeMillis())) {
+				oversized.increment();
+			}
+		} catch (IOException ex) {
+			LOG.warn("Could not store last known good {} of productId: {}: {}", kind, productId, ex.toString());
+		}
+	}
+
+	/**
+	 * @return the last known good value, null if there is none or it is older than maxAgeSec
+	 */
+	public <T> T get(Kind kind, int productId) {
+		if (!enabled) {
+			return null;
+		}
+
+		SlotStore.Entry entry = store.get(key(kind, productId));
+		if (entry == null || System.currentTimeMillis() - entry.storedAtMillis > maxAgeMillis) {
+			return null;
+		}
+
+		try {
+			T value = mapper.readValue(entry.value, types.get(kind));
+			served.get(kind).increment();
+			return value;
+		} catch (IOException ex) {
+			LOG.warn("Could not read last known good {} of productId: {}: {}", kind, productId, ex.toString());
+			return null;
+		}
+	}
+
+	public void remove(Kind kind, int productId) {
+		if (enabled) {
+			store.remove(key(kind, productId));
+		}
+	}
+
+	private static long key(Kind kind, int productId) {
+		return ((long) kind.ordinal() << 32) | (productId & 0xffffffffL);
+	}
+}
@@ -0,0 +1,108 @@
+package skyglass.composer.product.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import se.magnus.api.composite.product.ProductAggregate;
+
+/**
+ * In-process read-through cache of product aggregates, keyed by productId.
+ *
+ * Caffeine evicts with W-TinyLFU, the size is bounded by weight (one unit for the product plus one per recommendation and review).
+ * Entries are invalidated whenever a product, recommendation or review event is published or received for the productId,
+ * loads that started before the last invalidation of their productId are not stored.
+ */
+@Component
+public class ProductAggregateCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProductAggregateCache.class);
+
+	private static final String CACHE_NAME = "productAggregates";
+
+	private final boolean enabled;
+
+	private final Cache<Integer, ProductAggregate> cache;
+
+	private final Cache<Integer, Long> invalidations;
+
+	@Autowired
+	public ProductAggregateCache(
+			MeterRegistry registry,
+			@Value("${app.product-composite.cache.enabled:true}") boolean enabled,
+			@Value("${app.product-composite.cache.ttlSec:30}") int ttlSec,
+			@Value("${app.product-composite.cache.maxWeight:10000}") long maxWeight) {
+
+		this.enabled = enabled;
+		this.cache = Caffeine.newBuilder()
+				.maximumWeight(maxWeight)
+				.weigher((Integer productId, ProductAggregate aggregate) -> weigh(aggregate))
+				.expireAfterWrite(ttlSec, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		this.invalidations = Caffeine.newBuilder()
+				.maximumSize(maxWeight)
+				.expireAfterWrite(Math.max(ttlSec, 60), TimeUnit.SECONDS)
+				.build();
+
+		CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+		LOG.info("Product aggregate cache enabled: {}, ttlSec: {}, maxWeight: {}", enabled, ttlSec, maxWeight);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return a ticket to pass to {@link #put(int, long, ProductAggregate)} once the aggregate has been loaded
+	 */
+	public long beginLoad() {
+		return System.nanoTime();
+	}
+
+	public ProductAggregate get(int productId) {
+		return enabled ? cache.getIfPresent(productId) : null;
+	}
+
+	public void put(int productId, long loadTicket, ProductAggregate aggregate) {
+		if (!enabled) {
+			return;
+		}
+
+		Long invalidatedAt = invalidations.getIfPresent(productId);
+		if (invalidatedAt != null && invalidatedAt - loadTicket >= 0) {
+			LOG.debug("Product aggregate for productId: {} was invalidated while loading, will not cache it", productId);
+			return;
+		}
+		cache.put(productId, aggregate);
+	}
+
+	public void invalidate(int productId) {
+		if (!enabled) {
+			return;
+		}
+
+		invalidations.put(productId, System.nanoTime());
+		cache.invalidate(productId);
+	}
+
+	private static int weigh(ProductAggregate aggregate) {
+		int weight = 1;
+		if (aggregate.getRecommendations() != null) {
+			weight += aggregate.getRecommendations().size();
+		}
+		if (aggregate.getReviews() != null) {
+			weight += aggregate.getReviews().size();
+		}
+		return weight;
+	}
+}
@@ -0,0 +1,105 @@
+package skyglass.composer.product.cache;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.messaging.SubscribableChannel;
+
+import reactor.core.publisher.Mono;
+import se.magnus.api.event.Event;
+
+/**
+ * Listens to the products, recommendations and reviews destinations without a consumer group,
+ * so every composite instance sees every event and evicts the affected aggregate from its {@link ProductAggregateCache}.
+ *
+ * The core services consume the same events concurrently, so the entry is evicted once more after a short delay
+ * to drop aggregates that were read back before the core service had applied the change.
+ * Deleted entities are removed from the {@link LastKnownGoodStore} as well.
+ */
+@EnableBinding(ProductAggregateCacheInvalidator.MessageSinks.class)
+public class ProductAggregateCacheInvalidator {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProductAggregateCacheInvalidator.class);
+
+	private final ProductAggregateCache cache;
+
+	private final LastKnownGoodStore lastKnownGood;
+
+	private final Duration reinvalidationDelay;
+
+	public interface MessageSinks {
+
+		String INPUT_PRODUCTS = "input-products-invalidation";
+
+		String INPUT_RECOMMENDATIONS = "input-recommendations-invalidation";
+
+		String INPUT_REVIEWS = "input-reviews-invalidation";
+
+		@Input(INPUT_PRODUCTS)
+		SubscribableChannel inputProducts();
+
+		@Input(INPUT_RECOMMENDATIONS)
+		SubscribableChannel inputRecommendations();
+
+		@Input(INPUT_REVIEWS)
+		SubscribableChannel inputReviews();
+	}
+
+	@Autowired
+	public ProductAggregateCacheInvalidator(
+			ProductAggregateCache cache,
+			LastKnownGoodStore lastKnownGood,
+			@Value("${app.product-composite.cache.reinvalidationDelayMs:1000}") int reinvalidationDelayMs) {
+		this.cache = cache;
+		this.lastKnownGood = lastKnownGood;
+		this.reinvalidationDelay = Duration.ofMillis(reinvalidationDelayMs);
+	}
+
+	@StreamListener(MessageSinks.INPUT_PRODUCTS)
+	public void onProductEvent(Event<Integer, Object> event) {
+		invalidate(event);
+		forget(event, LastKnownGoodStore.Kind.PRODUCT);
+	}
+
+	@StreamListener(MessageSinks.INPUT_RECOMMENDATIONS)
+	public void onRecommendationEvent(Event<Integer, Object> event) {
+		invalidate(event);
+		forget(event, LastKnownGoodStore.Kind.RECOMMENDATIONS);
+	}
+
+	@StreamListener(MessageSinks.INPUT_REVIEWS)
+	public void onReviewEvent(Event<Integer, Object> event) {
+		invalidate(event);
+		forget(event, LastKnownGoodStore.Kind.REVIEWS);
+	}
+
+	private void invalidate(Event<Integer, Object> event) {
+		Integer productId = event.getKey();
+		if (productId == null || !cache.isEnabled()) {
+			return;
+		}
+
+		LOG.debug("Invalidates cached product aggregate for productId: {} after {} event", productId, event.getEventType());
+		cache.invalidate(productId);
+		Mono.delay(reinvalidationDelay).subscribe(t -> cache.invalidate(productId));
+	}
+
+	/**
+	 * Deleted entities must not come back as last known good values.
+	 */
+	private void forget(Event<Integer, Object> event, LastKnownGoodStore.Kind kind) {
+		Integer productId = event.getKey();
+		if (productId == null || event.getEventType() != Event.Type.DELETE) {
+			return;
+		}
+
+		LOG.debug("Removes last known good {} of productId: {} after {} event", kind, productId, event.getEventType());
+		lastKnownGood.remove(kind, productId);
+	}
+}
@@ -0,0 +1,148 @@
+package skyglass.composer.product.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed size key-value store of byte arrays outside of the Java heap, either in a direct buffer or in a memory-mapped file
+ * that keeps its content across restarts.
+ *
+ * The store is divided into slots of slotSize bytes and every key maps to exactly one slot, a value replaces whatever was stored
+ * in its slot before, even for a different key. Values that do not fit into a slot are not stored.
+ *
+ * Layout of the file: magic, slot count and slot size, followed by the slots. A slot holds the key, the time it was written,
+ * the length of the value and the value, a length of 0 marks an empty slot.
+ */
+class SlotStore {
+
+	static final class Entry {
+
+		final long storedAtMillis;
+
+		final byte[] value;
+
+		Entry(long storedAtMillis, byte[] value) {
+			this.storedAtMillis = storedAtMillis;
+			this.value = value;
+		}
+	}
+
+	private static final int MAGIC = 0x4c4b4731;
+
+	private static final int FILE_HEADER_SIZE = 12;
+
+	private static final int SLOT_HEADER_SIZE = 20;
+
+	private static final int LOCK_STRIPES = 64;
+
+	private final ByteBuffer buffer;
+
+	private final int slots;
+
+	private final int slotSize;
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	/**
+	 * @param file the file to map, null to keep the values in a direct buffer that is lost on restart
+	 */
+	SlotStore(Path file, int slots, int slotSize) throws IOException {
+		if (slotSize <= SLOT_HEADER_SIZE || (long) slots * slotSize + FILE_HEADER_SIZE > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid slots: " + slots + " of slotSize: " + slotSize);
+		}
+
+		this.slots = slots;
+		this.slotSize = slotSize;
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+
+		int size = FILE_HEADER_SIZE + slots * slotSize;
+		if (file == null) {
+			buffer = ByteBuffer.allocateDirect(size);
+		} else {
+			if (file.getParent() != null) {
+				Files.createDirectories(file.getParent());
+			}
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				// a file written with another layout can not be read, it is cleared instead
+				boolean compatible = channel.size() == size;
+				if (channel.size() > size) {
+					// a file left larger would fail the size check and be cleared on every restart
+					channel.truncate(size);
+				}
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				if (!compatible || mapped.getInt(0) != MAGIC || mapped.getInt(4) != slots || mapped.getInt(8) != slotSize) {
+					for (int i = 0; i < slots; i++) {
+						mapped.putInt(FILE_HEADER_SIZE + i * slotSize + 16, 0);
+					}
+					mapped.putInt(0, MAGIC).putInt(4, slots).putInt(8, slotSize);
+				}
+				buffer = mapped;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the value is too large for a slot
+	 */
+	boolean put(long key, byte[] value, long storedAtMillis) {
+		if (value.length == 0 || value.length > slotSize - SLOT_HEADER_SIZE) {
+			return false;
+		}
+
+		int offset = offset(key);
+		synchronized (lock(offset)) {
+			// the slot is marked empty until the value is complete, a write interrupted by a crash leaves an empty slot
+			ByteBuffer slot = buffer.duplicate();
+			slot.putInt(offset + 16, 0);
+			slot.putLong(offset, key).putLong(offset + 8, storedAtMillis);
+			slot.position(offset + SLOT_HEADER_SIZE);
+			slot.put(value);
+			slot.putInt(offset + 16, value.length);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the entry of the key, null if its slot is empty or holds another key
+	 */
+	Entry get(long key) {
+		int offset = offset(key);
+		synchronized (lock(offset)) {
+			ByteBuffer slot = buffer.duplicate();
+			int length = slot.getInt(offset + 16);
+			if (length <= 0 || length > slotSize - SLOT_HEADER_SIZE || slot.getLong(offset) != key) {
+				return null;
+			}
+			byte[] value = new byte[length];
+			slot.position(offset + SLOT_HEADER_SIZE);
+			slot.get(value);
+			return new Entry(slot.getLong(offset + 8), value);
+		}
+	}
+
+	void remove(long key) {
+		int offset = offset(key);
+		synchronized (lock(offset)) {
+			if (buffer.getLong(offset) == key) {
+				buffer.putInt(offset + 16, 0);
+			}
+		}
+	}
+
+	private int offset(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) ((hash >>> 32) % slots);
+		return FILE_HEADER_SIZE + slot * slotSize;
+	}
+
+	private Object lock(int offset) {
+		return locks[(offset / slotSize) % LOCK_STRIPES];
+	}
+}
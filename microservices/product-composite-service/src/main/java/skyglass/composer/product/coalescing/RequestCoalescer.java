@@ -0,0 +1,169 @@
+package skyglass.composer.product.coalescing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Single-flight execution of identical concurrent reads: while a call with the same name and key is in flight, further
+ * requests subscribe to it instead of making their own call, and all of them receive its result or its error.
+ *
+ * A call is shared only while it is in flight, it is forgotten as soon as it terminates, so this is no cache and never
+ * returns outdated values. A shared call is not cancelled when one of its subscribers cancels, only when all of them have
+ * cancelled, then it is forgotten as well.
+ * The key has to contain everything the result depends on, including the credentials or authorities the call is made with.
+ */
+@Component
+public class RequestCoalescer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestCoalescer.class);
+
+	private final boolean enabled;
+
+	private final MeterRegistry registry;
+
+	private final Map<Key, Flight<?>> inFlight = new ConcurrentHashMap<>();
+
+	private final Map<String, Counter> calls = new ConcurrentHashMap<>();
+
+	private final Map<String, Counter> coalesced = new ConcurrentHashMap<>();
+
+	@Autowired
+	public RequestCoalescer(
+			MeterRegistry registry,
+			@Value("${app.product-composite.coalescing.enabled:true}") boolean enabled) {
+		this.registry = registry;
+		this.enabled = enabled;
+
+		LOG.info("Request coalescing enabled: {}", enabled);
+	}
+
+	/**
+	 * @param name the name of the call, used in the metric tags
+	 * @param key identifies identical calls together with the name, must implement equals and hashCode
+	 * @param call creates the call, only subscribed to if no identical call is in flight
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Mono<T> coalesce(String name, Object key, Supplier<Mono<T>> call) {
+		if (!enabled) {
+			return call.get();
+		}
+
+		Key flightKey = new Key(name, key);
+		return Mono.defer(() -> {
+			AtomicReference<Flight<T>> created = new AtomicReference<>();
+			// joining and leaving a flight are both done under the lock of its map entry, so a flight is never joined after its last subscriber has left
+			Flight<T> flight = (Flight<T>) inFlight.compute(flightKey, (k, current) -> {
+				if (current == null) {
+					created.set(new Flight<>(k, call.get()));
+				}
+				Flight<T> joined = current != null ? (Flight<T>) current : created.get();
+				joined.subscribers++;
+				return joined;
+			});
+
+			if (flight == created.get()) {
+				counter(calls, "coalescing.calls", "Calls made by the request coalescer", name).increment();
+			} else {
+				counter(coalesced, "coalescing.coalesced", "Requests that were served by an identical call already in flight", name).increment();
+			}
+			return flight.shared.doOnCancel(() -> leave(flight));
+		});
+	}
+
+	/**
+	 * Coalesces a call with a multi-valued response, the whole response is collected before it is shared.
+	 */
+	public <T> Flux<T> coalesceAll(String name, Object key, Supplier<Flux<T>> call) {
+		if (!enabled) {
+			return call.get();
+		}
+		return coalesce(name, key, () -> call.get().collectList()).flatMapIterable((List<T> values) -> values);
+	}
+
+	private void leave(Flight<?> flight) {
+		AtomicBoolean abandoned = new AtomicBoolean();
+		inFlight.computeIfPresent(flight.key, (k, current) -> {
+			if (current != flight || --flight.subscribers > 0) {
+				return current;
+			}
+			abandoned.set(true);
+			return null;
+		});
+		// cancelled outside of the map entry lock, the cancelled call removes its entry again
+		if (abandoned.get()) {
+			flight.abandoned.tryEmitEmpty();
+		}
+	}
+
+	private Counter counter(Map<String, Counter> counters, String metric, String description, String name) {
+		return counters.computeIfAbsent(name, n -> Counter.builder(metric).description(description).tag("call", n).register(registry));
+	}
+
+	/**
+	 * A shared call and the number of its subscribers that have not cancelled.
+	 */
+	private final class Flight<T> {
+
+		private final Key key;
+
+		private final Sinks.Empty<Void> abandoned = Sinks.empty();
+
+		private final Mono<T> shared;
+
+		// guarded by the map entry of the key
+		private int subscribers;
+
+		Flight(Key key, Mono<T> call) {
+			this.key = key;
+			this.shared = call
+					.takeUntilOther(abandoned.asMono())
+					.doFinally(signal -> inFlight.remove(key, this))
+					.cache();
+		}
+	}
+
+	private static final class Key {
+
+		private final String name;
+
+		private final Object key;
+
+		Key(String name, Object key) {
+			this.name = name;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return name.equals(other.name) && key.equals(other.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * name.hashCode() + key.hashCode();
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package skyglass.composer.product.configuration;
+
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+import se.magnus.util.security.JwtValidationCache;
+
+/**
+ * Verifies a token with the delegate only if it is not in the {@link JwtValidationCache}.
+ */
+class CachingJwtDecoder implements JwtDecoder {
+
+	private final JwtDecoder delegate;
+
+	private final JwtValidationCache cache;
+
+	CachingJwtDecoder(JwtDecoder delegate, JwtValidationCache cache) {
+		this.delegate = delegate;
+		this.cache = cache;
+	}
+
+	@Override
+	public Jwt decode(String token) throws JwtException {
+		Jwt jwt = cache.get(token);
+		if (jwt == null) {
+			jwt = delegate.decode(token);
+			cache.put(token, jwt);
+		}
+		return jwt;
+	}
+}
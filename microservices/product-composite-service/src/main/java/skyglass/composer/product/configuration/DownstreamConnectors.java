@@ -0,0 +1,103 @@
+package skyglass.composer.product.configuration;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+
+import io.netty.channel.ChannelOption;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * One Reactor Netty connection pool per core service, so a slow service can not take the connections of the others.
+ *
+ * Every setting is read from app.product-composite.http.[service].[setting], falling back to
+ * app.product-composite.http.[setting] and then to the default below:
+ * <ul>
+ * <li>maxConnections (100), pendingAcquireMaxCount (500), pendingAcquireTimeoutMs (1000): pool size and the calls that may wait for a connection</li>
+ * <li>maxIdleTimeMs (30000), maxLifeTimeMs (300000), evictInBackgroundMs (30000): closes idle connections before the
+ * server or the mesh does, and old ones so new pods get their share of the connections</li>
+ * <li>connectTimeoutMs (1000), responseTimeoutMs (0, none): the product calls have their own timeout and the export streams</li>
+ * <li>protocol (http1 or h2c): h2c multiplexes all calls over few connections, the core services accept it with
+ * server.http2.enabled, behind a service mesh the service port must be declared as HTTP/2</li>
+ * </ul>
+ * The pools are exported as the reactor.netty.connection.provider metrics, tagged with the service as pool name.
+ */
+@Component
+public class DownstreamConnectors {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DownstreamConnectors.class);
+
+	private static final String PREFIX = "app.product-composite.http.";
+
+	private final Environment environment;
+
+	private final Map<String, ConnectionProvider> providers = new ConcurrentHashMap<>();
+
+	private final Map<String, ClientHttpConnector> connectors = new ConcurrentHashMap<>();
+
+	@Autowired
+	public DownstreamConnectors(Environment environment) {
+		this.environment = environment;
+	}
+
+	public ClientHttpConnector connector(String service) {
+		return connectors.computeIfAbsent(service, this::createConnector);
+	}
+
+	private ClientHttpConnector createConnector(String service) {
+		int maxConnections = setting(service, "maxConnections", 100);
+		int pendingAcquireMaxCount = setting(service, "pendingAcquireMaxCount", 500);
+		int pendingAcquireTimeoutMs = setting(service, "pendingAcquireTimeoutMs", 1000);
+		int maxIdleTimeMs = setting(service, "maxIdleTimeMs", 30000);
+		int maxLifeTimeMs = setting(service, "maxLifeTimeMs", 300000);
+		int evictInBackgroundMs = setting(service, "evictInBackgroundMs", 30000);
+		int connectTimeoutMs = setting(service, "connectTimeoutMs", 1000);
+		int responseTimeoutMs = setting(service, "responseTimeoutMs", 0);
+		String protocol = environment.getProperty(PREFIX + service + ".protocol", environment.getProperty(PREFIX + "protocol", "http1"));
+
+		ConnectionProvider provider = ConnectionProvider.builder(service)
+				.maxConnections(maxConnections)
+				.pendingAcquireMaxCount(pendingAcquireMaxCount)
+				.pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+				.maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+				.maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+				.evictInBackground(Duration.ofMillis(evictInBackgroundMs))
+				.metrics(true)
+				.build();
+		providers.put(service, provider);
+
+		HttpClient client = HttpClient.create(provider)
+				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+				.option(ChannelOption.SO_KEEPALIVE, true)
+				.protocol("h2c".equalsIgnoreCase(protocol) ? HttpProtocol.H2C : HttpProtocol.HTTP11);
+		if (responseTimeoutMs > 0) {
+			client = client.responseTimeout(Duration.ofMillis(responseTimeoutMs));
+		}
+
+		LOG.info("Connection pool of {}: protocol: {}, maxConnections: {}, pendingAcquireMaxCount: {}, maxIdleTimeMs: {}, maxLifeTimeMs: {}, connectTimeoutMs: {}, responseTimeoutMs: {}",
+				service, protocol, maxConnections, pendingAcquireMaxCount, maxIdleTimeMs, maxLifeTimeMs, connectTimeoutMs, responseTimeoutMs);
+		return new ReactorClientHttpConnector(client);
+	}
+
+	private int setting(String service, String name, int defaultValue) {
+		return environment.getProperty(PREFIX + service + "." + name, Integer.class,
+				environment.getProperty(PREFIX + name, Integer.class, defaultValue));
+	}
+
+	@PreDestroy
+	public void dispose() {
+		providers.values().forEach(ConnectionProvider::dispose);
+	}
+}
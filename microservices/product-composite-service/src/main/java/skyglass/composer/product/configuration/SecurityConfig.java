@@ -1,18 +1,30 @@
 package skyglass.composer.product.configuration;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
 import org.springframework.boot.autoconfigure.security.oauth2.client.OAuth2ClientProperties;
 import org.springframework.boot.autoconfigure.security.oauth2.client.OAuth2ClientProperties.Provider;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.ComponentScan.Filter;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.oauth2.client.AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager;
 import org.springframework.security.oauth2.client.InMemoryReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientProviderBuilder;
 import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientService;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.registration.InMemoryReactiveClientRegistrationRepository;
@@ -20,31 +32,96 @@ import org.springframework.security.oauth2.client.registration.ReactiveClientReg
 import org.springframework.security.oauth2.client.web.reactive.function.client.ServerOAuth2AuthorizedClientExchangeFilterFunction;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableOAuth2Client;
 import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import se.magnus.util.security.CachingReactiveJwtDecoder;
+import se.magnus.util.security.JwtValidationCache;
+import se.magnus.util.security.RefreshingAuthorizedClientManager;
+
 @Configuration
-@EnableWebSecurity
-@EnableOAuth2Client
-class SecurityConfig extends WebSecurityConfigurerAdapter {
-
-	@Override
-	protected void configure(HttpSecurity http) throws Exception {
-		http
-				.cors().and()
-				.httpBasic().disable()
-				.formLogin().disable()
-				.sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS).and()
-				.authorizeRequests()
-				.antMatchers("/api/product/**").authenticated()
-				.anyRequest().permitAll()
-				.and()
-				.oauth2ResourceServer()
-				.jwt();
+class SecurityConfig {
+
+	@Configuration
+	@ConditionalOnWebApplication(type = Type.SERVLET)
+	@EnableWebSecurity
+	@EnableOAuth2Client
+	static class ServletSecurityConfig extends WebSecurityConfigurerAdapter {
+
+		@Override
+		protected void configure(HttpSecurity http) throws Exception {
+			http
+					.cors().and()
+					.httpBasic().disable()
+					.formLogin().disable()
+					.sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS).and()
+					.authorizeRequests()
+					.antMatchers("/api/product/**", "/api/products/**", "/api/products:batchGet").authenticated()
+					.anyRequest().permitAll()
+					.and()
+					.oauth2ResourceServer()
+					.jwt();
+
+		}
+	}
+
+	// the WebFlux exception handler from books-online-util maps NotFoundException/InvalidInputException to 404/422
+	@Configuration
+	@ConditionalOnWebApplication(type = Type.REACTIVE)
+	@EnableWebFluxSecurity
+	@ComponentScan(basePackages = "se.magnus.util.http", useDefaultFilters = false, includeFilters = @Filter(RestControllerAdvice.class))
+	static class ReactiveSecurityConfig {
 
+		@Bean
+		public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
+			http
+					.cors().and()
+					.httpBasic().disable()
+					.formLogin().disable()
+					.authorizeExchange()
+					.pathMatchers("/api/product/**", "/api/products/**", "/api/products:batchGet").authenticated()
+					.anyExchange().permitAll()
+					.and()
+					.oauth2ResourceServer()
+					.jwt();
+
+			return http.build();
+		}
 	}
 
 	@Bean
-	WebClient webClient(AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager reactiveClientManager) {
+	JwtValidationCache jwtValidationCache(
+			MeterRegistry registry,
+			@Value("${app.product-composite.jwt-cache.enabled:true}") boolean enabled,
+			@Value("${app.product-composite.jwt-cache.maxSize:10000}") long maxSize,
+			@Value("${app.product-composite.jwt-cache.maxTtlSec:300}") int maxTtlSec) {
+		return new JwtValidationCache(registry, enabled, maxSize, maxTtlSec);
+	}
+
+	// wraps the JwtDecoder of the resource server, whether auto-configured or not, so validated tokens are cached
+	@Bean
+	static BeanPostProcessor jwtDecoderCache(ObjectProvider<JwtValidationCache> cache) {
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof JwtDecoder && !(bean instanceof CachingJwtDecoder) && cache.getObject().isEnabled()) {
+					return new CachingJwtDecoder((JwtDecoder) bean, cache.getObject());
+				}
+				if (bean instanceof ReactiveJwtDecoder && !(bean instanceof CachingReactiveJwtDecoder) && cache.getObject().isEnabled()) {
+					return new CachingReactiveJwtDecoder((ReactiveJwtDecoder) bean, cache.getObject());
+				}
+				return bean;
+			}
+		};
+	}
+
+	@Bean
+	WebClient webClient(ReactiveOAuth2AuthorizedClientManager reactiveClientManager) {
 		ServerOAuth2AuthorizedClientExchangeFilterFunction oauth = new ServerOAuth2AuthorizedClientExchangeFilterFunction(reactiveClientManager);
 		oauth.setDefaultOAuth2AuthorizedClient(true);
 		return WebClient.builder()
@@ -67,7 +144,7 @@ class SecurityConfig extends WebSecurityConfigurerAdapter {
 							.clientSecret(v.getClientSecret())
 							.redirectUri(v.getRedirectUri())
 							.authorizationUri(provider.getAuthorizationUri())
-							.authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+							.authorizationGrantType(v.getAuthorizationGrantType() != null ? new AuthorizationGrantType(v.getAuthorizationGrantType()) : AuthorizationGrantType.AUTHORIZATION_CODE)
 							.build();
 					clientRegistrations.add(clientRegistration);
 				});
@@ -76,11 +153,21 @@ class SecurityConfig extends WebSecurityConfigurerAdapter {
 	}
 
 	@Bean
-	AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager reactiveClientManager(
-			ReactiveClientRegistrationRepository clientRegistrationRepository) {
+	ReactiveOAuth2AuthorizedClientManager reactiveClientManager(
+			ReactiveClientRegistrationRepository clientRegistrationRepository,
+			@Value("${app.product-composite.oauth2.refreshBeforeSec:60}") int refreshBeforeSec,
+			@Value("${app.product-composite.oauth2.refreshJitterSec:30}") int refreshJitterSec) {
 		ReactiveOAuth2AuthorizedClientService authorizedClientService = new InMemoryReactiveOAuth2AuthorizedClientService(clientRegistrationRepository);
-		return new AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager(clientRegistrationRepository,
+		AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager clientManager = new AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager(clientRegistrationRepository,
 				authorizedClientService);
+
+		// the provider renews a token within the window in which RefreshingAuthorizedClientManager asks for it
+		Duration clockSkew = Duration.ofSeconds(refreshBeforeSec + refreshJitterSec);
+		clientManager.setAuthorizedClientProvider(ReactiveOAuth2AuthorizedClientProviderBuilder.builder()
+				.clientCredentials(builder -> builder.clockSkew(clockSkew))
+				.refreshToken(builder -> builder.clockSkew(clockSkew))
+				.build());
+		return new RefreshingAuthorizedClientManager(clientManager, Duration.ofSeconds(refreshBeforeSec), Duration.ofSeconds(refreshJitterSec));
 	}
 
 }
@@ -25,7 +25,10 @@ public class SecurityContextUtils {
 	}
 
 	public static String getUserName() {
-		SecurityContext securityContext = SecurityContextHolder.getContext();
+		return getUserName(SecurityContextHolder.getContext());
+	}
+
+	public static String getUserName(SecurityContext securityContext) {
 		Authentication authentication = securityContext.getAuthentication();
 		String username = ANONYMOUS;
 		if (authentication != null) {
@@ -61,7 +64,10 @@ public class SecurityContextUtils {
 	}
 
 	public static Set<String> getUserRoles() {
-		SecurityContext securityContext = SecurityContextHolder.getContext();
+		return getUserRoles(SecurityContextHolder.getContext());
+	}
+
+	public static Set<String> getUserRoles(SecurityContext securityContext) {
 		Authentication authentication = securityContext.getAuthentication();
 		Set<String> roles = new HashSet<>();
 
@@ -0,0 +1,37 @@
+package skyglass.composer.product.hedging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that limits hedges to a percentage of the calls: every call adds percent/100 of a token,
+ * a hedge takes a whole token. At most MAX_TOKENS can be saved up for a burst of slow calls.
+ */
+class HedgeBudget {
+
+	private static final long TOKEN = 1000;
+
+	private static final long MAX_TOKENS = 10 * TOKEN;
+
+	private final long earnedPerRequest;
+
+	private final AtomicLong balance = new AtomicLong();
+
+	HedgeBudget(double percent) {
+		this.earnedPerRequest = Math.round(percent / 100 * TOKEN);
+	}
+
+	void onRequest() {
+		balance.accumulateAndGet(earnedPerRequest, (current, earned) -> Math.min(MAX_TOKENS, current + earned));
+	}
+
+	boolean tryAcquire() {
+		long current;
+		do {
+			current = balance.get();
+			if (current < TOKEN) {
+				return false;
+			}
+		} while (!balance.compareAndSet(current, current - TOKEN));
+		return true;
+	}
+}
@@ -0,0 +1,180 @@
+package skyglass.composer.product.hedging;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Hedged requests to the core services: if a call has not answered within the configured percentile of the recent latency
+ * of that service, the same call is sent once more and whichever answers first is used, the other one is cancelled.
+ *
+ * The duplicate is a new request to the service address, so the service mesh balances it to any instance, most likely
+ * not the slow one. Hedges are paid for by a budget, every call earns budgetPercent/100 of a hedge, so hedging adds at most
+ * budgetPercent extra load even when a whole service is slow. Until a latency percentile is known no call is hedged.
+ *
+ * Hedging is opt-in, only use it for idempotent calls.
+ */
+@Component
+public class RequestHedger {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+	private static final long DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final boolean enabled;
+
+	private final List<String> services;
+
+	private final double percentile;
+
+	private final Duration minDelay;
+
+	private final double budgetPercent;
+
+	private final Duration window;
+
+	private final MeterRegistry registry;
+
+	private final Map<String, Downstream> downstreams = new ConcurrentHashMap<>();
+
+	@Autowired
+	public RequestHedger(
+			MeterRegistry registry,
+			@Value("${app.product-composite.hedging.enabled:false}") boolean enabled,
+			@Value("${app.product-composite.hedging.services:product,recommendation,review}") List<String> services,
+			@Value("${app.product-composite.hedging.percentile:0.95}") double percentile,
+			@Value("${app.product-composite.hedging.minDelayMs:5}") long minDelayMs,
+			@Value("${app.product-composite.hedging.budgetPercent:10}") double budgetPercent,
+			@Value("${app.product-composite.hedging.windowSec:60}") int windowSec) {
+
+		this.registry = registry;
+		this.enabled = enabled;
+		this.services = services;
+		this.percentile = percentile;
+		this.minDelay = Duration.ofMillis(minDelayMs);
+		this.budgetPercent = budgetPercent;
+		this.window = Duration.ofSeconds(windowSec);
+
+		LOG.info("Request hedging enabled: {}, services: {}, percentile: {}, minDelayMs: {}, budgetPercent: {}", enabled, services, percentile, minDelayMs, budgetPercent);
+	}
+
+	public boolean isEnabled(String service) {
+		return enabled && services.contains(service);
+	}
+
+	/**
+	 * @param service the name of the core service, used in the metric tags
+	 * @param call creates the call, is subscribed to a second time for the hedge
+	 */
+	public <T> Mono<T> hedge(String service, Supplier<Mono<T>> call) {
+		if (!isEnabled(service)) {
+			return call.get();
+		}
+
+		Downstream downstream = downstreams.computeIfAbsent(service, Downstream::new);
+		return Mono.defer(() -> {
+			downstream.budget.onRequest();
+
+			long start = System.nanoTime();
+			// only an answer is recorded, a primary cancelled because the hedge won would skew the percentile low
+			Mono<T> primary = call.get()
+					.doOnTerminate(() -> downstream.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+
+			Duration delay = downstream.delay();
+			if (delay == null) {
+				return primary;
+			}
+
+			// errors of the hedge are ignored, the primary call decides the outcome unless the hedge returns a value first
+			Mono<T> hedged = Mono.delay(delay)
+					.flatMap(tick -> {
+						if (!downstream.budget.tryAcquire()) {
+							downstream.denied.increment();
+							return Mono.<T> never();
+						}
+						downstream.fired.increment();
+						return call.get()
+								.doOnNext(value -> downstream.won.increment())
+								.onErrorResume(ex -> Mono.never());
+					});
+
+			return Mono.firstWithSignal(primary, hedged);
+		});
+	}
+
+	/**
+	 * Hedges a call with a multi-valued response, the whole response is collected before it is used.
+	 */
+	public <T> Flux<T> hedgeAll(String service, Supplier<Flux<T>> call) {
+		if (!isEnabled(service)) {
+			return call.get();
+		}
+		return hedge(service, () -> call.get().collectList()).flatMapIterable(values -> values);
+	}
+
+	private class Downstream {
+
+		final Timer latency;
+
+		final Counter fired;
+
+		final Counter won;
+
+		final Counter denied;
+
+		final HedgeBudget budget;
+
+		private volatile Duration delay;
+
+		private volatile long delayRefreshedAt;
+
+		Downstream(String service) {
+			latency = Timer.builder("hedging.latency")
+					.description("Latency of the calls to a core service, not counting hedges")
+					.tag("service", service)
+					.publishPercentiles(percentile)
+					.distributionStatisticExpiry(window)
+					.register(registry);
+			fired = Counter.builder("hedging.fired").description("Hedged calls sent").tag("service", service).register(registry);
+			won = Counter.builder("hedging.won").description("Hedged calls answered before the original call").tag("service", service).register(registry);
+			denied = Counter.builder("hedging.denied").description("Hedges not sent because the budget was used up").tag("service", service).register(registry);
+			budget = new HedgeBudget(budgetPercent);
+			delayRefreshedAt = System.nanoTime() - DELAY_REFRESH_NANOS;
+		}
+
+		/**
+		 * @return the configured percentile of the recent latency, null while it is not known yet
+		 */
+		Duration delay() {
+			long now = System.nanoTime();
+			if (now - delayRefreshedAt >= DELAY_REFRESH_NANOS) {
+				delayRefreshedAt = now;
+				Duration refreshed = null;
+				for (ValueAtPercentile value : latency.takeSnapshot().percentileValues()) {
+					if (value.percentile() == percentile && value.value() > 0) {
+						Duration observed = Duration.ofNanos((long) value.value(TimeUnit.NANOSECONDS));
+						refreshed = observed.compareTo(minDelay) < 0 ? minDelay : observed;
+					}
+				}
+				delay = refreshed;
+			}
+			return delay;
+		}
+	}
+}
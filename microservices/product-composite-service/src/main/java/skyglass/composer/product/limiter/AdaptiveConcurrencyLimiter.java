@@ -0,0 +1,122 @@
+package skyglass.composer.product.limiter;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Adaptive concurrency limit per core service in front of the WebClient calls, see {@link AimdLimit}.
+ *
+ * Requests are limited when they carry the name of the core service in the {@link #SERVICE_ATTRIBUTE} attribute, other
+ * requests pass unlimited. Calls over the limit wait up to maxQueueWaitMs in a queue of at most maxQueueSize calls and
+ * fail with a {@link LimitExceededException} after that, so a slow core service gets fewer calls instead of piling them up
+ * until they time out.
+ *
+ * The current limit, the calls in flight and queued and the rejected calls are exported as limiter.limit,
+ * limiter.inflight, limiter.queued and limiter.rejected, tagged by service.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter implements ExchangeFilterFunction {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+	public static final String SERVICE_ATTRIBUTE = AdaptiveConcurrencyLimiter.class.getName() + ".service";
+
+	private final boolean enabled;
+
+	private final int initialLimit;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final double backoffRatio;
+
+	private final double rttTolerance;
+
+	private final int maxQueueSize;
+
+	private final Duration maxQueueWait;
+
+	private final MeterRegistry registry;
+
+	private final Map<String, AimdLimit> limits = new ConcurrentHashMap<>();
+
+	@Autowired
+	public AdaptiveConcurrencyLimiter(
+			MeterRegistry registry,
+			@Value("${app.product-composite.limiter.enabled:true}") boolean enabled,
+			@Value("${app.product-composite.limiter.initialLimit:20}") int initialLimit,
+			@Value("${app.product-composite.limiter.minLimit:5}") int minLimit,
+			@Value("${app.product-composite.limiter.maxLimit:200}") int maxLimit,
+			@Value("${app.product-composite.limiter.backoffRatio:0.9}") double backoffRatio,
+			@Value("${app.product-composite.limiter.rttTolerance:2.0}") double rttTolerance,
+			@Value("${app.product-composite.limiter.maxQueueSize:100}") int maxQueueSize,
+			@Value("${app.product-composite.limiter.maxQueueWaitMs:50}") long maxQueueWaitMs) {
+
+		this.registry = registry;
+		this.enabled = enabled;
+		this.initialLimit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.rttTolerance = rttTolerance;
+		this.maxQueueSize = maxQueueSize;
+		this.maxQueueWait = Duration.ofMillis(maxQueueWaitMs);
+
+		LOG.info("Adaptive concurrency limiter enabled: {}, initialLimit: {}, minLimit: {}, maxLimit: {}, maxQueueSize: {}, maxQueueWaitMs: {}",
+				enabled, initialLimit, minLimit, maxLimit, maxQueueSize, maxQueueWaitMs);
+	}
+
+	@Override
+	public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+		String service = (String) request.attribute(SERVICE_ATTRIBUTE).orElse(null);
+		if (!enabled || service == null) {
+			return next.exchange(request);
+		}
+
+		AimdLimit limit = limits.computeIfAbsent(service, this::newLimit);
+		return Mono.defer(() -> {
+			AimdLimit.Permit permit = limit.newPermit();
+			AtomicLong start = new AtomicLong(System.nanoTime());
+			AtomicBoolean failed = new AtomicBoolean();
+
+			// a cancelled call, e.g. by a timeout or a hedge that answered first, only counts with its round trip time
+			return limit.acquire(permit, service)
+					.then(Mono.defer(() -> {
+						start.set(System.nanoTime());
+						return next.exchange(request);
+					}))
+					.doOnNext(response -> failed.set(response.statusCode().is5xxServerError()))
+					.doOnError(ex -> failed.set(!(ex instanceof LimitExceededException)))
+					.doFinally(signal -> permit.release(System.nanoTime() - start.get(), failed.get()));
+		});
+	}
+
+	private AimdLimit newLimit(String service) {
+		AimdLimit limit = new AimdLimit(initialLimit, minLimit, maxLimit, backoffRatio, rttTolerance, maxQueueSize, maxQueueWait);
+		Gauge.builder("limiter.limit", limit, AimdLimit::getLimit).description("Current concurrency limit").tag("service", service).register(registry);
+		Gauge.builder("limiter.inflight", limit, AimdLimit::getInFlight).description("Calls in flight").tag("service", service).register(registry);
+		Gauge.builder("limiter.queued", limit, AimdLimit::getQueued).description("Calls waiting for a permit").tag("service", service).register(registry);
+		FunctionCounter.builder("limiter.rejected", limit, AimdLimit::getRejected).description("Calls rejected because the limit was reached")
+				.tag("service", service).register(registry);
+		return limit;
+	}
+}
@@ -0,0 +1,205 @@
+package skyglass.composer.product.limiter;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Concurrency limit of one core service, adjusted with additive increase / multiplicative decrease.
+ *
+ * The round trip times of the calls are averaged over a short and a long term. While the short term average stays within
+ * rttTolerance times the long term average the limit grows by one per limit calls, as long as at least half of it is used.
+ * When the short term average exceeds it, or a call fails with an error or 5xx response, the limit is multiplied by
+ * backoffRatio, at most once per long term round trip time so one slow period is not counted for every call it delays.
+ */
+class AimdLimit {
+
+	private static final double SHORT_TERM_WEIGHT = 0.1;
+
+	private static final double LONG_TERM_WEIGHT = 0.01;
+
+	private static final int WAITING = 0;
+
+	private static final int HELD = 1;
+
+	private static final int DONE = 2;
+
+	/**
+	 * A permit of one call, moves from WAITING (queued) or HELD (acquired) to DONE exactly once.
+	 */
+	class Permit {
+
+		private final AtomicInteger state;
+
+		private MonoSink<Void> sink;
+
+		private Permit(int state) {
+			this.state = new AtomicInteger(state);
+		}
+
+		/**
+		 * Releases the permit or leaves the queue, whatever applies, may be called more than once.
+		 */
+		void release(long rttNanos, boolean failed) {
+			if (state.compareAndSet(HELD, DONE)) {
+				onSample(rttNanos, failed);
+				releaseOrHandOver();
+			} else if (state.compareAndSet(WAITING, DONE)) {
+				waiting.remove(this);
+			}
+		}
+	}
+
+	private final double minLimit;
+
+	private final double maxLimit;
+
+	private final double backoffRatio;
+
+	private final double rttTolerance;
+
+	private final int maxQueueSize;
+
+	private final Duration maxQueueWait;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	private final Queue<Permit> waiting = new ConcurrentLinkedQueue<>();
+
+	private volatile double limit;
+
+	private double shortRttNanos;
+
+	private double longRttNanos;
+
+	private long lastDecreaseNanos;
+
+	AimdLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double rttTolerance, int maxQueueSize, Duration maxQueueWait) {
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.rttTolerance = rttTolerance;
+		this.maxQueueSize = maxQueueSize;
+		this.maxQueueWait = maxQueueWait;
+	}
+
+	/**
+	 * @return the permit, to be released once the call is done, whether acquire succeeded or not
+	 */
+	Permit newPermit() {
+		return new Permit(WAITING);
+	}
+
+	/**
+	 * Completes when the permit is acquired, right away if the limit allows another call, otherwise after waiting in the queue.
+	 * Fails with a LimitExceededException if the queue is full or the permit is not acquired within maxQueueWait.
+	 */
+	Mono<Void> acquire(Permit permit, String service) {
+		if (tryAcquire()) {
+			permit.state.set(HELD);
+			return Mono.empty();
+		}
+		if (maxQueueWait.isZero() || waiting.size() >= maxQueueSize) {
+			permit.state.set(DONE);
+			return reject(service);
+		}
+
+		return Mono.<Void> create(sink -> {
+			permit.sink = sink;
+			waiting.add(permit);
+			// a permit may have been released between the failed tryAcquire and joining the queue
+			if (tryAcquire()) {
+				if (permit.state.compareAndSet(WAITING, HELD)) {
+					waiting.remove(permit);
+					sink.success();
+				} else {
+					releaseOrHandOver();
+				}
+			}
+		})
+				.timeout(maxQueueWait, Mono.defer(() -> {
+					if (permit.state.compareAndSet(WAITING, DONE)) {
+						waiting.remove(permit);
+						return reject(service);
+					}
+					// the permit was handed over just as the wait timed out
+					return permit.state.get() == HELD ? Mono.<Void> empty() : reject(service);
+				}));
+	}
+
+	private Mono<Void> reject(String service) {
+		rejected.incrementAndGet();
+		return Mono.error(new LimitExceededException("Concurrency limit of " + getLimit() + " calls to " + service + " reached"));
+	}
+
+	private boolean tryAcquire() {
+		int current;
+		do {
+			current = inFlight.get();
+			if (current >= (int) limit) {
+				return false;
+			}
+		} while (!inFlight.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	/**
+	 * Hands the permit of a finished call over to the first caller in the queue, if the limit still allows it.
+	 */
+	private void releaseOrHandOver() {
+		if (inFlight.get() <= (int) limit) {
+			Permit next;
+			while ((next = waiting.poll()) != null) {
+				if (next.state.compareAndSet(WAITING, HELD)) {
+					next.sink.success();
+					return;
+				}
+			}
+		}
+		inFlight.decrementAndGet();
+	}
+
+	private synchronized void onSample(long rttNanos, boolean failed) {
+		if (longRttNanos == 0) {
+			shortRttNanos = rttNanos;
+			longRttNanos = rttNanos;
+		} else {
+			shortRttNanos += (rttNanos - shortRttNanos) * SHORT_TERM_WEIGHT;
+			longRttNanos += (rttNanos - longRttNanos) * LONG_TERM_WEIGHT;
+		}
+
+		long now = System.nanoTime();
+		if (failed || shortRttNanos > longRttNanos * rttTolerance) {
+			if (now - lastDecreaseNanos >= longRttNanos) {
+				lastDecreaseNanos = now;
+				limit = Math.max(minLimit, limit * backoffRatio);
+			}
+		} else if (inFlight.get() * 2 >= limit) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	int getLimit() {
+		return (int) limit;
+	}
+
+	int getInFlight() {
+		return inFlight.get();
+	}
+
+	int getQueued() {
+		return waiting.size();
+	}
+
+	long getRejected() {
+		return rejected.get();
+	}
+}
@@ -0,0 +1,11 @@
+package skyglass.composer.product.limiter;
+
+/**
+ * A call to a core service was not made because its concurrency limit was reached.
+ */
+public class LimitExceededException extends RuntimeException {
+
+	public LimitExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,242 @@
+package skyglass.composer.product.outbox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Outbox of the events of the composite write operations.
+ *
+ * publish appends the messages of one write operation as a single record to an {@link OutboxLog} and returns, so a write is
+ * acknowledged without waiting for the message broker and either all or none of its events are published. The relay thread
+ * reads the log in order and sends the events to their output bindings, a failed send is retried with exponential backoff
+ * until it succeeds, so the events of a product are never reordered or lost. Events are published at least once, a crash
+ * between sending a batch and committing its position publishes the batch again.
+ *
+ * The log directory must be on a persistent volume, the events in it are lost with the directory, and must not be shared
+ * between instances. Without app.product-composite.outbox.enabled, the default, the events are sent directly by publish.
+ */
+@Component
+public class EventOutbox {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EventOutbox.class);
+
+	private static final TypeReference<List<OutboxMessage>> MESSAGES = new TypeReference<List<OutboxMessage>>() {
+	};
+
+	private final boolean enabled;
+
+	private final ObjectMapper mapper;
+
+	private final Map<String, MessageChannel> channels;
+
+	private final OutboxLog log;
+
+	private final int batchSize;
+
+	private final long pollIntervalNanos;
+
+	private final long retryInitialMs;
+
+	private final long retryMaxMs;
+
+	private final Counter appended;
+
+	private final Counter relayed;
+
+	private final Counter sendFailures;
+
+	private volatile boolean running;
+
+	private Thread relay;
+
+	@Autowired
+	public EventOutbox(
+			ObjectMapper mapper,
+			Map<String, MessageChannel> channels,
+			MeterRegistry registry,
+			@Value("${app.product-composite.outbox.enabled:false}") boolean enabled,
+			@Value("${app.product-composite.outbox.directory:${java.io.tmpdir}/product-composite-outbox}") String directory,
+			@Value("${app.product-composite.outbox.segmentSize:16777216}") int segmentSize,
+			@Value("${app.product-composite.outbox.force:false}") boolean force,
+			@Value("${app.product-composite.outbox.batchSize:100}") int batchSize,
+			@Value("${app.product-composite.outbox.pollIntervalMs:100}") int pollIntervalMs,
+			@Value("${app.product-composite.outbox.retryInitialMs:100}") int retryInitialMs,
+			@Value("${app.product-composite.outbox.retryMaxMs:10000}") int retryMaxMs) throws IOException {
+
+		this.enabled = enabled;
+		this.mapper = mapper;
+		this.channels = channels;
+		this.log = enabled ? new OutboxLog(Paths.get(directory), segmentSize, force) : null;
+		this.batchSize = batchSize;
+		this.pollIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pollIntervalMs);
+		this.retryInitialMs = retryInitialMs;
+		this.retryMaxMs = retryMaxMs;
+
+		appended = Counter.builder("outbox.appended").description("Write operations appended to the outbox").register(registry);
+		relayed = Counter.builder("outbox.relayed").description("Events sent by the outbox relay").register(registry);
+		sendFailures = Counter.builder("outbox.send.failures").description("Failed sends of the outbox relay, retried").register(registry);
+		if (enabled) {
+			Gauge.builder("outbox.segments", log, OutboxLog::segmentCount).description("Segment files of the outbox").register(registry);
+		}
+
+		LOG.info("Event outbox enabled: {}, directory: {}, segmentSize: {}, force: {}, batchSize: {}", enabled, directory, segmentSize, force, batchSize);
+	}
+
+	@PostConstruct
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		running = true;
+		relay = new Thread(this::relay, "outbox-relay");
+		relay.setDaemon(true);
+		relay.start();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (!enabled) {
+			return;
+		}
+		running = false;
+		relay.interrupt();
+		relay.join(TimeUnit.SECONDS.toMillis(5));
+		log.close();
+	}
+
+	/**
+	 * Publishes the events of one write operation, in the given order.
+	 */
+	public void publish(List<OutboxMessage> messages) {
+		for (OutboxMessage message : messages) {
+			if (!channels.containsKey(message.getBinding())) {
+				throw new IllegalArgumentException("Unknown output binding: " + message.getBinding());
+			}
+		}
+
+		if (!enabled) {
+			messages.forEach(this::send);
+			return;
+		}
+
+		try {
+			log.append(mapper.writeValueAsBytes(messages));
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Could not append " + messages.size() + " events to the outbox", ex);
+		}
+		appended.increment();
+		LockSupport.unpark(relay);
+	}
+
+	private void relay() {
+		OutboxLog.Position position;
+		try {
+			position = log.committed();
+		} catch (IOException ex) {
+			// publishing the log again is better than never, the consumers skip the events they already processed
+			position = log.first();
+			LOG.error("Could not read the position of the outbox relay, starts again at {}", position, ex);
+		}
+		LOG.info("Outbox relay starts at {}", position);
+
+		while (running) {
+			try {
+				position = relayBatch(position);
+			} catch (RuntimeException ex) {
+				// the relay thread must not end, otherwise events pile up in the log without notice
+				LOG.error("Outbox relay failed at {}, retries in {} ms", position, retryMaxMs, ex);
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryMaxMs));
+			}
+		}
+	}
+
+	/**
+	 * Sends the next records after the position and commits them.
+	 *
+	 * @return the position to continue from
+	 */
+	private OutboxLog.Position relayBatch(OutboxLog.Position position) {
+		List<OutboxLog.Record> records = log.read(position, batchSize);
+		if (records.isEmpty()) {
+			LockSupport.parkNanos(pollIntervalNanos);
+			return position;
+		}
+
+		for (OutboxLog.Record record : records) {
+			List<OutboxMessage> messages;
+			try {
+				messages = mapper.readValue(record.payload, MESSAGES);
+			} catch (IOException ex) {
+				// retrying can not help, the record is skipped so it does not block the events behind it
+				LOG.error("Skips unreadable outbox record before {}: {}", record.next, ex.toString());
+				continue;
+			}
+			for (OutboxMessage message : messages) {
+				if (!sendWithRetries(message)) {
+					return position;
+				}
+			}
+		}
+
+		OutboxLog.Position next = records.get(records.size() - 1).next;
+		try {
+			log.commit(next);
+		} catch (IOException ex) {
+			LOG.warn("Could not commit the position {} of the outbox relay: {}", next, ex.toString());
+		}
+		return next;
+	}
+
+	/**
+	 * @return false if the relay was stopped before the message could be sent
+	 */
+	private boolean sendWithRetries(OutboxMessage message) {
+		long backoffMs = retryInitialMs;
+		while (running) {
+			try {
+				send(message);
+				relayed.increment();
+				return true;
+			} catch (RuntimeException ex) {
+				sendFailures.increment();
+				LOG.warn("Could not send {} event for productId: {} to {}, retries in {} ms: {}", message.getEvent().getEventType(), message.getEvent().getKey(),
+						message.getBinding(), backoffMs, ex.toString());
+				try {
+					Thread.sleep(backoffMs);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+				backoffMs = Math.min(backoffMs * 2, retryMaxMs);
+			}
+		}
+		return false;
+	}
+
+	private void send(OutboxMessage message) {
+		channels.get(message.getBinding()).send(MessageBuilder.withPayload(message.getEvent()).build());
+	}
+}
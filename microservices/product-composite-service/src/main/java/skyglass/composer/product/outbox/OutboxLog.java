@@ -0,0 +1,330 @@
+package skyglass.composer.product.outbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records in memory-mapped segment files, written by any thread and read by one relay.
+ *
+ * A record is its length, the CRC32 of its payload and the payload. The length is written last, so a record torn by a crash
+ * reads as the end of the log, and it is only visible to the reader once it is complete. A segment that has no room for the next
+ * record is sealed with an end marker and writing continues in a new segment. Segments the reader has committed past are deleted
+ * and unmapped.
+ * The committed position of the reader is kept in a separate file, replaced atomically, a missing or incomplete file reads as
+ * the start of the first segment, so the log is published again rather than never.
+ */
+class OutboxLog implements Closeable {
+
+	static final class Position {
+
+		final long segment;
+
+		final int offset;
+
+		Position(long segment, int offset) {
+			this.segment = segment;
+			this.offset = offset;
+		}
+
+		@Override
+		public String toString() {
+			return segment + ":" + offset;
+		}
+	}
+
+	static final class Record {
+
+		final byte[] payload;
+
+		final Position next;
+
+		Record(byte[] payload, Position next) {
+			this.payload = payload;
+			this.next = next;
+		}
+	}
+
+	private static final class Segment {
+
+		final long id;
+
+		final Path path;
+
+		final MappedByteBuffer buffer;
+
+		// written by the appending thread under the lock of the log, read without it by the relay
+		volatile int limit;
+
+		volatile boolean sealed;
+
+		Segment(long id, Path path, MappedByteBuffer buffer) {
+			this.id = id;
+			this.path = path;
+			this.buffer = buffer;
+		}
+	}
+
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private static final int END_OF_SEGMENT = -1;
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final String OFFSET_FILE = "relay.offset";
+
+	private static final int OFFSET_SIZE = 12;
+
+	private static final Object UNSAFE;
+
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			unsafe = theUnsafe.get(null);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			// not available before Java 9 or when access is denied
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final boolean force;
+
+	private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+	private Segment writer;
+
+	/**
+	 * @param force forces every record to the storage device before append returns, without it a record survives a crash
+	 *            of the process but not of the operating system
+	 */
+	OutboxLog(Path directory, int segmentSize, boolean force) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.force = force;
+
+		Files.createDirectories(directory);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+				segments.put(id, recover(open(id, file)));
+			}
+		}
+
+		// only the last segment is appended to after a restart
+		for (Segment segment : segments.values()) {
+			if (segment != segments.lastEntry().getValue()) {
+				segment.sealed = true;
+			}
+		}
+		writer = segments.isEmpty() ? create(0) : segments.lastEntry().getValue();
+		if (writer.sealed) {
+			writer = create(writer.id + 1);
+		}
+	}
+
+	synchronized void append(byte[] payload) throws IOException {
+		int size = RECORD_HEADER_SIZE + payload.length;
+		// room for an end marker is always left behind the last record
+		if (size + 4 > segmentSize) {
+			throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit into a segment of " + segmentSize + " bytes");
+		}
+
+		if (writer.limit + size + 4 > segmentSize) {
+			writer.buffer.putInt(writer.limit, END_OF_SEGMENT);
+			if (force) {
+				writer.buffer.force();
+			}
+			Segment next = create(writer.id + 1);
+			writer.sealed = true;
+			writer = next;
+		}
+
+		int offset = writer.limit;
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		ByteBuffer record = writer.buffer.duplicate();
+		record.position(offset + RECORD_HEADER_SIZE);
+		record.put(payload);
+		record.putInt(offset + 4, (int) crc.getValue());
+		record.putInt(offset, payload.length);
+		if (force) {
+			writer.buffer.force();
+		}
+		writer.limit = offset + size;
+	}
+
+	/**
+	 * @return up to max records following the given position, in the order they were appended
+	 */
+	List<Record> read(Position from, int max) {
+		List<Record> records = new ArrayList<>();
+
+		Map.Entry<Long, Segment> entry = segments.ceilingEntry(from.segment);
+		if (entry == null) {
+			return records;
+		}
+		Segment segment = entry.getValue();
+		int offset = segment.id == from.segment ? from.offset : 0;
+
+		while (records.size() < max) {
+			// sealed is read before limit, a segment seen as sealed has its final limit
+			boolean sealed = segment.sealed;
+			if (offset < segment.limit) {
+				ByteBuffer record = segment.buffer.duplicate();
+				int length = record.getInt(offset);
+				byte[] payload = new byte[length];
+				record.position(offset + RECORD_HEADER_SIZE);
+				record.get(payload);
+				offset += RECORD_HEADER_SIZE + length;
+				records.add(new Record(payload, new Position(segment.id, offset)));
+			} else if (sealed) {
+				Map.Entry<Long, Segment> next = segments.higherEntry(segment.id);
+				if (next == null) {
+					break;
+				}
+				segment = next.getValue();
+				offset = 0;
+			} else {
+				break;
+			}
+		}
+		return records;
+	}
+
+	Position first() {
+		return new Position(segments.firstKey(), 0);
+	}
+
+	Position committed() throws IOException {
+		Path file = directory.resolve(OFFSET_FILE);
+		if (!Files.exists(file)) {
+			return first();
+		}
+		byte[] content = Files.readAllBytes(file);
+		if (content.length != OFFSET_SIZE) {
+			return first();
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(content);
+		return new Position(buffer.getLong(), buffer.getInt());
+	}
+
+	/**
+	 * Stores the position of the reader and deletes the segments before it. Must be called by the reader, the segments are
+	 * unmapped right away and may not be read any more.
+	 */
+	void commit(Position position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(OFFSET_SIZE).putLong(position.segment).putInt(position.offset);
+		buffer.flip();
+		// written to a temporary file and moved over the old one, a crash leaves either the old or the new position
+		Path tmp = directory.resolve(OFFSET_FILE + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			if (force) {
+				channel.force(false);
+			}
+		}
+		Files.move(tmp, directory.resolve(OFFSET_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		for (Segment segment : segments.headMap(position.segment, false).values()) {
+			segments.remove(segment.id);
+			Files.deleteIfExists(segment.path);
+			unmap(segment.buffer);
+		}
+	}
+
+	int segmentCount() {
+		return segments.size();
+	}
+
+	@Override
+	public synchronized void close() {
+		segments.values().forEach(segment -> segment.buffer.force());
+	}
+
+	/**
+	 * A mapping is otherwise only released when its buffer is garbage collected, until then a deleted segment still takes up
+	 * address space and its space on disk is not freed. Without access to Unsafe.invokeCleaner that is left to the garbage collector.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		if (UNSAFE != null) {
+			try {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			} catch (ReflectiveOperationException ex) {
+				// left to the garbage collector
+			}
+		}
+	}
+
+	private Segment create(long id) throws IOException {
+		Segment segment = open(id, directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX)));
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private Segment open(long id, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size())));
+		}
+	}
+
+	/**
+	 * Finds the end of the complete records of a segment written before a restart.
+	 */
+	private static Segment recover(Segment segment) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		int offset = 0;
+		while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+			int length = buffer.getInt(offset);
+			if (length == END_OF_SEGMENT) {
+				segment.sealed = true;
+				break;
+			}
+			if (length <= 0 || offset + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+				break;
+			}
+
+			byte[] payload = new byte[length];
+			buffer.position(offset + RECORD_HEADER_SIZE);
+			buffer.get(payload);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+				break;
+			}
+			offset += RECORD_HEADER_SIZE + length;
+		}
+		segment.limit = offset;
+		return segment;
+	}
+}
@@ -0,0 +1,32 @@
+package skyglass.composer.product.outbox;
+
+import se.magnus.api.event.Event;
+
+/**
+ * An event and the name of the output binding it is published to.
+ */
+public class OutboxMessage {
+
+	private final String binding;
+
+	private final Event<Integer, Object> event;
+
+	public OutboxMessage() {
+		this.binding = null;
+		this.event = null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public OutboxMessage(String binding, Event<Integer, ?> event) {
+		this.binding = binding;
+		this.event = (Event<Integer, Object>) event;
+	}
+
+	public String getBinding() {
+		return binding;
+	}
+
+	public Event<Integer, Object> getEvent() {
+		return event;
+	}
+}
@@ -0,0 +1,448 @@
+package skyglass.composer.product.services;
+
+import static java.util.logging.Level.FINE;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.RecommendationSummary;
+import se.magnus.api.composite.product.ReviewSummary;
+import se.magnus.api.composite.product.ServiceAddresses;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.util.exceptions.InvalidInputException;
+import skyglass.composer.product.cache.LastKnownGoodStore;
+import skyglass.composer.product.cache.LastKnownGoodStore.Kind;
+import skyglass.composer.product.cache.ProductAggregateCache;
+import skyglass.composer.product.coalescing.RequestCoalescer;
+import skyglass.composer.product.configuration.SecurityContextUtils;
+import skyglass.composer.product.limiter.LimitExceededException;
+
+/**
+ * Splits product aggregates into core entities and assembles them back again.
+ * Shared by the servlet and the WebFlux flavours of the composite API, the security context is always passed in explicitly.
+ */
+@Component
+public class ProductCompositeAggregator {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeAggregator.class);
+
+	private final ServiceUtil serviceUtil;
+
+	private final ProductCompositeIntegration integration;
+
+	private final Tracer tracer;
+
+	private final ProductAggregateCache cache;
+
+	private final RequestCoalescer coalescer;
+
+	private final LastKnownGoodStore lastKnownGood;
+
+	private final Duration revalidateInterval;
+
+	private final int revalidateAttempts;
+
+	private final Map<Integer, Boolean> revalidating = new ConcurrentHashMap<>();
+
+	private final int batchMaxSize;
+
+	private final int exportChunkSize;
+
+	private final Duration exportChunkTimeout;
+
+	@Autowired
+	public ProductCompositeAggregator(
+			ServiceUtil serviceUtil,
+			ProductCompositeIntegration integration,
+			Tracer tracer,
+			ProductAggregateCache cache,
+			RequestCoalescer coalescer,
+			LastKnownGoodStore lastKnownGood,
+			@Value("${app.product-composite.last-known-good.revalidateIntervalSec:10}") int revalidateIntervalSec,
+			@Value("${app.product-composite.last-known-good.revalidateAttempts:30}") int revalidateAttempts,
+			@Value("${app.product-composite.batch.maxSize:100}") int batchMaxSize,
+			@Value("${app.product-composite.export.chunkSize:50}") int exportChunkSize,
+			@Value("${app.product-composite.export.chunkTimeoutSec:10}") int exportChunkTimeoutSec) {
+		this.serviceUtil = serviceUtil;
+		this.integration = integration;
+		this.tracer = tracer;
+		this.cache = cache;
+		this.coalescer = coalescer;
+		this.lastKnownGood = lastKnownGood;
+		this.revalidateInterval = Duration.ofSeconds(revalidateIntervalSec);
+		this.revalidateAttempts = revalidateAttempts;
+		this.batchMaxSize = batchMaxSize;
+		this.exportChunkSize = exportChunkSize;
+		this.exportChunkTimeout = Duration.ofSeconds(exportChunkTimeoutSec);
+	}
+
+	public void internalCreateCompositeProduct(SecurityContext sc, ProductAggregate body) {
+
+		try {
+
+			SecurityContextUtils.logAuthorizationInfo(sc, LOG);
+
+			LOG.debug("createCompositeProduct: creates a new composite entity for productId: {}", body.getProductId());
+
+			// the events of the aggregate go to the outbox together, so a broker failure can not leave a partial aggregate
+			integration.createProductAggregate(body);
+
+			LOG.debug("createCompositeProduct: composite entities created for productId: {}", body.getProductId());
+
+		} catch (RuntimeException re) {
+			LOG.warn("createCompositeProduct failed: {}", re.toString());
+			throw re;
+		}
+	}
+
+	public Mono<ProductAggregate> getCompositeProduct(SecurityContext sc, HttpHeaders requestHeaders, int productId) {
+
+		String username = SecurityContextUtils.getUserName(sc);
+		LOG.info("Will get composite product info for product.id={} and username={}", productId, username);
+		Span span = tracer.activeSpan();
+		if (span != null) {
+			span.log(String.format("Will get composite product info for product.id=%s and username=%s", productId, username));
+			span.setTag("username", username);
+		}
+
+		if (productId < 1)
+			throw new InvalidInputException("Invalid productId: " + productId);
+
+		ProductAggregate cached = cache.get(productId);
+		if (cached != null) {
+			LOG.debug("getCompositeProduct: found product aggregate for productId: {} in cache", productId);
+			return Mono.just(cached);
+		}
+
+		HttpHeaders headers = getHeaders(requestHeaders, "X-group");
+
+		// concurrent requests for the same product by users with the same roles share one fan-out to the core services
+		return coalescer.coalesce("composite", Arrays.asList(productId, SecurityContextUtils.getUserRoles(sc)), () -> Mono.defer(() -> {
+			long loadTicket = cache.beginLoad();
+			AtomicBoolean partial = new AtomicBoolean();
+			AtomicBoolean stale = new AtomicBoolean();
+
+			// Serve the last known good values of a core service that is not available, marked as stale.
+			// Return empty recommendations and reviews if there are none to make it possible to return partial responses
+			return Mono.zip(
+					values -> {
+						SecurityContextUtils.logAuthorizationInfo(sc, LOG);
+						return createProductAggregate((Product) values[0], (List<Recommendation>) values[1], (List<Review>) values[2], serviceUtil.getServiceAddress(), stale.get());
+					},
+					integration.getProduct(headers, productId, 0, 0)
+							.doOnNext(product -> lastKnownGood.put(Kind.PRODUCT, productId, product))
+							.onErrorResume(ProductCompositeAggregator::isUnavailable, ex -> {
+								Product product = lastKnownGood.get(Kind.PRODUCT, productId);
+								if (product == null) {
+									return Mono.error(ex);
+								}
+								partial.set(true);
+								stale.set(true);
+								return Mono.just(product);
+							}),
+					integration.getRecommendations(headers, productId).collectList()
+							.doOnNext(recommendations -> lastKnownGood.put(Kind.RECOMMENDATIONS, productId, recommendations))
+							.onErrorResume(ex -> {
+								partial.set(true);
+								List<Recommendation> recommendations = lastKnownGood.get(Kind.RECOMMENDATIONS, productId);
+								stale.compareAndSet(false, recommendations != null);
+								return Mono.just(recommendations != null ? recommendations : Collections.emptyList());
+							}),
+					integration.getReviews(headers, productId).collectList()
+							.doOnNext(reviews -> lastKnownGood.put(Kind.REVIEWS, productId, reviews))
+							.onErrorResume(ex -> {
+								partial.set(true);
+								List<Review> reviews = lastKnownGood.get(Kind.REVIEWS, productId);
+								stale.compareAndSet(false, reviews != null);
+								return Mono.just(reviews != null ? reviews : Collections.emptyList());
+							}))
+					.doOnNext(aggregate -> {
+						// never cache stale values or partial responses
+						if (!partial.get()) {
+							cache.put(productId, loadTicket, aggregate);
+						}
+						if (stale.get()) {
+							revalidate(headers, productId);
+						}
+					});
+		}))
+				.doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
+				.log(null, FINE);
+	}
+
+	/**
+	 * Gets the product aggregates of several products with one call per core service instead of one call per product and core service.
+	 * Aggregates found in the cache are not fetched again. Products that do not exist are left out of the result,
+	 * the other aggregates are returned in the requested order.
+	 */
+	public Flux<ProductAggregate> getCompositeProducts(SecurityContext sc, HttpHeaders requestHeaders, List<Integer> productIds) {
+
+		if (productIds == null || productIds.isEmpty()) {
+			return Flux.empty();
+		}
+
+		if (productIds.size() > batchMaxSize) {
+			throw new InvalidInputException("Too many productIds: " + productIds.size() + ", max is: " + batchMaxSize);
+		}
+
+		Set<Integer> uniqueProductIds = new LinkedHashSet<>();
+		for (Integer productId : productIds) {
+			if (productId == null || productId < 1)
+				throw new InvalidInputException("Invalid productId: " + productId);
+			uniqueProductIds.add(productId);
+		}
+
+		String username = SecurityContextUtils.getUserName(sc);
+		LOG.info("Will get composite product info for {} products and username={}", uniqueProductIds.size(), username);
+		Span span = tracer.activeSpan();
+		if (span != null) {
+			span.log(String.format("Will get composite product info for %s products and username=%s", uniqueProductIds.size(), username));
+			span.setTag("username", username);
+		}
+		SecurityContextUtils.logAuthorizationInfo(sc, LOG);
+
+		List<ProductAggregate> cached = new ArrayList<>();
+		List<Integer> missing = new ArrayList<>();
+		for (Integer productId : uniqueProductIds) {
+			ProductAggregate aggregate = cache.get(productId);
+			if (aggregate != null) {
+				cached.add(aggregate);
+			} else {
+				missing.add(productId);
+			}
+		}
+		LOG.debug("getCompositeProducts: found {} of {} product aggregates in cache", cached.size(), uniqueProductIds.size());
+
+		if (missing.isEmpty()) {
+			return Flux.fromIterable(cached);
+		}
+
+		HttpHeaders headers = getHeaders(requestHeaders, "X-group");
+
+		Mono<List<ProductAggregate>> loaded = Mono.defer(() -> {
+			long loadTicket = cache.beginLoad();
+			AtomicBoolean partial = new AtomicBoolean();
+
+			// Return empty recommendations and reviews if something goes wrong to make it possible to return partial responses
+			return Mono.zip(
+					integration.getProductsByProductIds(headers, missing).collectList(),
+					integration.getRecommendationsByProductIds(headers, missing).collectMultimap(Recommendation::getProductId)
+							.onErrorResume(ex -> {
+								partial.set(true);
+								return Mono.just(Collections.emptyMap());
+							}),
+					integration.getReviewsByProductIds(headers, missing).collectMultimap(Review::getProductId)
+							.onErrorResume(ex -> {
+								partial.set(true);
+								return Mono.just(Collections.emptyMap());
+							}))
+					.map(t -> {
+						Map<Integer, Collection<Recommendation>> recommendations = t.getT2();
+						Map<Integer, Collection<Review>> reviews = t.getT3();
+						List<ProductAggregate> aggregates = new ArrayList<>(t.getT1().size());
+						for (Product product : t.getT1()) {
+							int productId = product.getProductId();
+							ProductAggregate aggregate = createProductAggregate(product,
+									toList(recommendations.get(productId)),
+									toList(reviews.get(productId)),
+									serviceUtil.getServiceAddress());
+							// never cache partial responses
+							if (!partial.get()) {
+								cache.put(productId, loadTicket, aggregate);
+							}
+							aggregates.add(aggregate);
+						}
+						return aggregates;
+					});
+		});
+
+		return loaded
+				.flatMapMany(aggregates -> {
+					List<ProductAggregate> all = new ArrayList<>(cached);
+					all.addAll(aggregates);
+					Map<Integer, ProductAggregate> byProductId = all.stream().collect(Collectors.toMap(ProductAggregate::getProductId, a -> a, (a, b) -> a));
+					return Flux.fromIterable(uniqueProductIds)
+							.filter(byProductId::containsKey)
+							.map(byProductId::get);
+				})
+				.doOnError(ex -> LOG.warn("getCompositeProducts failed: {}", ex.toString()))
+				.log(null, FINE);
+	}
+
+	/**
+	 * Streams the product aggregates of all products with a productId greater than fromProductId, ordered by productId.
+	 * Products are read from one ordered stream and processed in chunks, each chunk fetches its recommendations and reviews
+	 * with one bulk call per core service. Only a bounded number of chunks is in flight, so memory use does not depend on the catalog size.
+	 * Errors are not hidden behind partial aggregates, an interrupted export is resumed by passing the last exported productId.
+	 */
+	public Flux<ProductAggregate> exportCompositeProducts(SecurityContext sc, HttpHeaders requestHeaders, int fromProductId) {
+
+		if (fromProductId < 0)
+			throw new InvalidInputException("Invalid fromProductId: " + fromProductId);
+
+		LOG.info("Will export composite product info for productId > {} and username={}", fromProductId, SecurityContextUtils.getUserName(sc));
+		SecurityContextUtils.logAuthorizationInfo(sc, LOG);
+
+		HttpHeaders headers = getHeaders(requestHeaders, "X-group");
+
+		return integration.exportProducts(headers, fromProductId)
+				.buffer(exportChunkSize)
+				.concatMap(products -> createProductAggregates(headers, products), 1)
+				.doOnError(ex -> LOG.warn("exportCompositeProducts failed: {}", ex.toString()))
+				.log(null, FINE);
+	}
+
+	private Flux<ProductAggregate> createProductAggregates(HttpHeaders headers, List<Product> products) {
+
+		List<Integer> productIds = products.stream().map(Product::getProductId).collect(Collectors.toList());
+
+		// only the product stream is exempt from timeouts, the calls of one chunk must finish within exportChunkTimeout
+		return Mono.zip(
+				integration.getRecommendationsByProductIds(headers, productIds).collectMultimap(Recommendation::getProductId),
+				integration.getReviewsByProductIds(headers, productIds).collectMultimap(Review::getProductId))
+				.timeout(exportChunkTimeout)
+				.flatMapMany(t -> Flux.fromIterable(products)
+						.map(product -> createProductAggregate(product,
+								toList(t.getT1().get(product.getProductId())),
+								toList(t.getT2().get(product.getProductId())),
+								serviceUtil.getServiceAddress())));
+	}
+
+	public void internalDeleteCompositeProduct(SecurityContext sc, int productId) {
+		try {
+			SecurityContextUtils.logAuthorizationInfo(sc, LOG);
+
+			LOG.debug("deleteCompositeProduct: Deletes a product aggregate for productId: {}", productId);
+
+			integration.deleteProductAggregate(productId);
+
+			LOG.debug("deleteCompositeProduct: aggregate entities deleted for productId: {}", productId);
+
+		} catch (RuntimeException re) {
+			LOG.warn("deleteCompositeProduct failed: {}", re.toString());
+			throw re;
+		}
+	}
+
+	private HttpHeaders getHeaders(HttpHeaders requestHeaders, String... headers) {
+		LOG.trace("Will look for {} headers: {}", headers.length, headers);
+		HttpHeaders h = new HttpHeaders();
+		/*
+		 * for (String header : headers) {
+		 * List<String> value = requestHeaders.get(header);
+		 * if (value != null) {
+		 * h.addAll(header, value);
+		 * }
+		 * }
+		 */
+		h.add("Authorization", requestHeaders.getFirst("authorization"));
+		LOG.trace("Will transfer {}, headers: {}", h.size(), h);
+		return h;
+	}
+
+	/**
+	 * Refreshes the last known good values of a product in the background after a stale aggregate was served,
+	 * retried until all core services answer again. At most one revalidation per product runs at a time.
+	 */
+	private void revalidate(HttpHeaders headers, int productId) {
+		if (revalidating.putIfAbsent(productId, Boolean.TRUE) != null) {
+			return;
+		}
+
+		LOG.debug("Will revalidate the last known good values of productId: {}", productId);
+		Mono.when(
+				integration.getProduct(headers, productId, 0, 0).doOnNext(product -> lastKnownGood.put(Kind.PRODUCT, productId, product)),
+				integration.getRecommendations(headers, productId).collectList().doOnNext(recommendations -> lastKnownGood.put(Kind.RECOMMENDATIONS, productId, recommendations)),
+				integration.getReviews(headers, productId).collectList().doOnNext(reviews -> lastKnownGood.put(Kind.REVIEWS, productId, reviews)))
+				.delaySubscription(revalidateInterval)
+				.retryWhen(Retry.fixedDelay(revalidateAttempts, revalidateInterval).filter(ProductCompositeAggregator::isUnavailable))
+				.doFinally(signal -> revalidating.remove(productId))
+				.subscribe(
+						null,
+						ex -> LOG.debug("Revalidation of the last known good values of productId: {} failed: {}", productId, ex.toString()),
+						() -> LOG.debug("Revalidated the last known good values of productId: {}", productId));
+	}
+
+	/**
+	 * @return true if the call was not made or not answered, as opposed to an answer like not found
+	 */
+	private static boolean isUnavailable(Throwable ex) {
+		if (ex instanceof WebClientResponseException) {
+			return ((WebClientResponseException) ex).getStatusCode().is5xxServerError();
+		}
+		return ex instanceof CallNotPermittedException
+				|| ex instanceof LimitExceededException
+				|| ex instanceof TimeoutException
+				|| ex instanceof WebClientRequestException;
+	}
+
+	private static <T> List<T> toList(Collection<T> values) {
+		return (values == null) ? Collections.emptyList() : new ArrayList<>(values);
+	}
+
+	/**
+	 * Assembles the aggregate of a product from its core entities, without any I/O, measured by the benchmarks module.
+	 */
+	public static ProductAggregate createProductAggregate(Product product, List<Recommendation> recommendations, List<Review> reviews, String serviceAddress) {
+		return createProductAggregate(product, recommendations, reviews, serviceAddress, false);
+	}
+
+	static ProductAggregate createProductAggregate(Product product, List<Recommendation> recommendations, List<Review> reviews, String serviceAddress, boolean stale) {
+
+		// 1. Setup product info
+		int productId = product.getProductId();
+		String name = product.getName();
+		int weight = product.getWeight();
+
+		// 2. Copy summary recommendation info, if available
+		List<RecommendationSummary> recommendationSummaries = (recommendations == null) ? null
+				: recommendations.stream()
+						.map(r -> new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent()))
+						.collect(Collectors.toList());
+
+		// 3. Copy summary review info, if available
+		List<ReviewSummary> reviewSummaries = (reviews == null) ? null
+				: reviews.stream()
+						.map(r -> new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent()))
+						.collect(Collectors.toList());
+
+		// 4. Create info regarding the involved microservices addresses
+		String productAddress = product.getServiceAddress();
+		String reviewAddress = (reviews != null && reviews.size() > 0) ? reviews.get(0).getServiceAddress() : "";
+		String recommendationAddress = (recommendations != null && recommendations.size() > 0) ? recommendations.get(0).getServiceAddress() : "";
+		ServiceAddresses serviceAddresses = new ServiceAddresses(serviceAddress, productAddress, reviewAddress, recommendationAddress);
+
+		return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses, stale);
+	}
+
+}
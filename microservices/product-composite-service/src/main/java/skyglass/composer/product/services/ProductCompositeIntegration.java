@@ -1,13 +1,17 @@
 package skyglass.composer.product.services;
 
 import static java.util.logging.Level.FINE;
-import static reactor.core.publisher.Flux.empty;
 import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
+import static se.magnus.api.event.Event.Type.PRODUCT_AGGREGATE_CREATED;
 
 import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,8 +20,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.Output;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.messaging.MessageChannel;
-import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
@@ -27,6 +31,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import se.magnus.api.composite.product.ProductAggregate;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.core.product.ProductService;
 import se.magnus.api.core.recommendation.Recommendation;
@@ -37,6 +42,13 @@ import se.magnus.api.event.Event;
 import se.magnus.util.exceptions.InvalidInputException;
 import se.magnus.util.exceptions.NotFoundException;
 import se.magnus.util.http.HttpErrorInfo;
+import skyglass.composer.product.cache.ProductAggregateCache;
+import skyglass.composer.product.coalescing.RequestCoalescer;
+import skyglass.composer.product.configuration.DownstreamConnectors;
+import skyglass.composer.product.hedging.RequestHedger;
+import skyglass.composer.product.limiter.AdaptiveConcurrencyLimiter;
+import skyglass.composer.product.outbox.EventOutbox;
+import skyglass.composer.product.outbox.OutboxMessage;
 
 @EnableBinding(ProductCompositeIntegration.MessageSources.class)
 @Component
@@ -44,24 +56,42 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
 	private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeIntegration.class);
 
-	private final String productServiceUrl = "http://product/api";
+	private static final String PRODUCT = "product";
 
-	private final String recommendationServiceUrl = "http://recommendation";
+	private static final String RECOMMENDATION = "recommendation";
 
-	private final String reviewServiceUrl = "http://review";
+	private static final String REVIEW = "review";
+
+	private final String productServiceUrl;
+
+	private final String recommendationServiceUrl;
+
+	private final String reviewServiceUrl;
 
 	private final ObjectMapper mapper;
 
-	private final WebClient.Builder webClientBuilder;
+	private final WebClient productWebClient;
 
-	private WebClient webClient;
+	private final WebClient recommendationWebClient;
 
-	private WebClient authorizedWebClient;
+	private final WebClient reviewWebClient;
 
-	private final MessageSources messageSources;
+	private final EventOutbox outbox;
 
 	private final int productServiceTimeoutSec;
 
+	private final int recommendationServiceTimeoutSec;
+
+	private final int reviewServiceTimeoutSec;
+
+	private final ProductAggregateCache cache;
+
+	private final RequestHedger hedger;
+
+	private final RequestCoalescer coalescer;
+
+	private final boolean aggregateEvents;
+
 	public interface MessageSources {
 
 		String OUTPUT_PRODUCTS = "output-products";
@@ -84,21 +114,50 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 	public ProductCompositeIntegration(
 			WebClient.Builder webClientBuilder,
 			ObjectMapper mapper,
-			MessageSources messageSources,
+			EventOutbox outbox,
 			@Value("${app.product-service.timeoutSec}") int productServiceTimeoutSec,
-			WebClient webClient
+			@Value("${app.recommendation-service.timeoutSec:2}") int recommendationServiceTimeoutSec,
+			@Value("${app.review-service.timeoutSec:2}") int reviewServiceTimeoutSec,
+			@Value("${app.product-service.url:http://product/api}") String productServiceUrl,
+			@Value("${app.recommendation-service.url:http://recommendation}") String recommendationServiceUrl,
+			@Value("${app.review-service.url:http://review}") String reviewServiceUrl,
+			WebClient webClient,
+			ProductAggregateCache cache,
+			RequestHedger hedger,
+			AdaptiveConcurrencyLimiter limiter,
+			DownstreamConnectors connectors,
+			RequestCoalescer coalescer,
+			@Value("${app.product-composite.aggregateEvents:false}") boolean aggregateEvents
 
 	) {
-		this.webClientBuilder = webClientBuilder;
+		this.productServiceUrl = productServiceUrl;
+		this.recommendationServiceUrl = recommendationServiceUrl;
+		this.reviewServiceUrl = reviewServiceUrl;
 		this.mapper = mapper;
-		this.messageSources = messageSources;
+		this.outbox = outbox;
 		this.productServiceTimeoutSec = productServiceTimeoutSec;
-		this.authorizedWebClient = webClient;
+		this.recommendationServiceTimeoutSec = recommendationServiceTimeoutSec;
+		this.reviewServiceTimeoutSec = reviewServiceTimeoutSec;
+		// the product service requires the OAuth2 client filter of the webClient bean
+		this.productWebClient = webClient.mutate().clientConnector(connectors.connector(PRODUCT)).filter(limiter).build();
+		this.recommendationWebClient = webClientBuilder.clone().clientConnector(connectors.connector(RECOMMENDATION)).filter(limiter).build();
+		this.reviewWebClient = webClientBuilder.clone().clientConnector(connectors.connector(REVIEW)).filter(limiter).build();
+		this.cache = cache;
+		this.hedger = hedger;
+		this.coalescer = coalescer;
+		this.aggregateEvents = aggregateEvents;
 	}
 
 	@Override
 	public Product createProduct(Product body) {
-		messageSources.outputProducts().send(MessageBuilder.withPayload(new Event(CREATE, body.getProductId(), body)).build());
+		publish(MessageSources.OUTPUT_PRODUCTS, new Event(CREATE, body.getProductId(), body));
+		cache.invalidate(body.getProductId());
+		return body;
+	}
+
+	@Override
+	public List<Product> createProducts(List<Product> body) {
+		body.forEach(this::createProduct);
 		return body;
 	}
 
@@ -110,11 +169,13 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 		URI url = UriComponentsBuilder.fromUriString(productServiceUrl + "/product/{productId}").build(productId);
 		LOG.debug("Will call the getProduct API on URL: {}", url);
 
-		return getAuthorizedWebClient().get().uri(url)
+		// the timeout covers the original call and its hedge together, concurrent identical calls share both
+		return coalescer.coalesce(PRODUCT, coalescingKey(headers, productId), () -> hedger.hedge(PRODUCT, () -> productWebClient.get().uri(url)
+				.attribute(AdaptiveConcurrencyLimiter.SERVICE_ATTRIBUTE, PRODUCT)
 				.headers(h -> h.addAll(headers))
 				.retrieve().bodyToMono(Product.class).log(null, FINE)
-				.onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
-				.timeout(Duration.ofSeconds(productServiceTimeoutSec));
+				.onErrorMap(WebClientResponseException.class, ex -> handleException(ex)))
+				.timeout(Duration.ofSeconds(productServiceTimeoutSec)));
 	}
 
 	@Override
@@ -123,21 +184,64 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 		URI url = UriComponentsBuilder.fromUriString(productServiceUrl + "/product/{productId}").build(productId);
 		LOG.debug("Will call the getProduct API on URL: {}", url);
 
-		return getAuthorizedWebClient().get().uri(url)
+		return productWebClient.get().uri(url)
+				.attribute(AdaptiveConcurrencyLimiter.SERVICE_ATTRIBUTE, PRODUCT)
 				.headers(h -> h.addAll(headers))
 				.retrieve().bodyToMono(Product.class).log(null, FINE)
 				.onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
 				.timeout(Duration.ofSeconds(productServiceTimeoutSec));
 	}
 
+	@Override
+	public Flux<Product> getProductsByProductIds(HttpHeaders headers, List<Integer> productIds) {
+
+		URI url = UriComponentsBuilder.fromUriString(productServiceUrl + "/products").queryParam("productIds", productIds).build().toUri();
+		LOG.debug("Will call the getProductsByProductIds API on URL: {}", url);
+
+		return productWebClient.get().uri(url)
+				.attribute(AdaptiveConcurrencyLimiter.SERVICE_ATTRIBUTE, PRODUCT)
+				.headers(h -> h.addAll(headers))
+				.accept(MediaType.APPLICATION_NDJSON)
+				.retrieve().bodyToFlux(Product.class).log(null, FINE)
+				.onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+				.timeout(Duration.ofSeconds(productServiceTimeoutSec));
+	}
+
+	@Override
+	public Flux<Product> exportProducts(HttpHeaders headers, int fromProductId) {
+
+		URI url = UriComponentsBuilder.fromUriString(productServiceUrl + "/products/export").queryParam("fromProductId", fromProductId).build().toUri();
+		LOG.debug("Will call the exportProducts API on URL: {}", url);
+
+		// No timeout and no concurrency limit, the stream lasts as long as the export
+		return productWebClient.get().uri(url)
+				.headers(h -> h.addAll(headers))
+				.accept(MediaType.APPLICATION_NDJSON)
+				.retrieve().bodyToFlux(Product.class).log(null, FINE)
+				.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+	}
+
 	@Override
 	public void deleteProduct(int productId) {
-		messageSources.outputProducts().send(MessageBuilder.withPayload(new Event(DELETE, productId, null)).build());
+		publish(MessageSources.OUTPUT_PRODUCTS, new Event(DELETE, productId, null));
+		cache.invalidate(productId);
+	}
+
+	@Override
+	public void deleteProducts(List<Integer> productIds) {
+		productIds.forEach(this::deleteProduct);
 	}
 
 	@Override
 	public Recommendation createRecommendation(Recommendation body) {
-		messageSources.outputRecommendations().send(MessageBuilder.withPayload(new Event(CREATE, body.getProductId(), body)).build());
+		publish(MessageSources.OUTPUT_RECOMMENDATIONS, new Event(CREATE, body.getProductId(), body));
+		cache.invalidate(body.getProductId());
+		return body;
+	}
+
+	@Override
+	public List<Recommendation> createRecommendations(List<Recommendation> body) {
+		body.forEach(this::createRecommendation);
 		return body;
 	}
 
@@ -148,18 +252,45 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
 		LOG.debug("Will call the getRecommendations API on URL: {}", url);
 
-		// Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-		return getWebClient().get().uri(url).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(Recommendation.class).log(null, FINE).onErrorResume(error -> empty());
+		// Errors and timeouts are propagated, the composite service decides whether to return a partial response
+		return coalescer.coalesceAll(RECOMMENDATION, coalescingKey(headers, productId),
+				() -> hedger.hedgeAll(RECOMMENDATION, () -> recommendationWebClient.get().uri(url).attribute(AdaptiveConcurrencyLimiter.SERVICE_ATTRIBUTE, RECOMMENDATION).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(Recommendation.class).log(null, FINE))
+						.timeout(Duration.ofSeconds(recommendationServiceTimeoutSec)));
+	}
+
+	@Override
+	public Flux<Recommendation> getRecommendationsByProductIds(HttpHeaders headers, List<Integer> productIds) {
+
+		URI url = UriComponentsBuilder.fromUriString(recommendationServiceUrl + "/recommendations").queryParam("productIds", productIds).build().toUri();
+
+		LOG.debug("Will call the getRecommendationsByProductIds API on URL: {}", url);
+
+		// Errors and timeouts are propagated, the composite service decides whether to return a partial response
+		return recommendationWebClient.get().uri(url).attribute(AdaptiveConcurrencyLimiter.SERVICE_ATTRIBUTE, RECOMMENDATION).headers(h -> h.addAll(headers)).accept(MediaType.APPLICATION_NDJSON).retrieve().bodyToFlux(Recommendation.class).log(null, FINE)
+				.timeout(Duration.ofSeconds(recommendationServiceTimeoutSec));
 	}
 
 	@Override
 	public void deleteRecommendations(int productId) {
-		messageSources.outputRecommendations().send(MessageBuilder.withPayload(new Event(DELETE, productId, null)).build());
+		publish(MessageSources.OUTPUT_RECOMMENDATIONS, new Event(DELETE, productId, null));
+		cache.invalidate(productId);
+	}
+
+	@Override
+	public void deleteRecommendationsByProductIds(List<Integer> productIds) {
+		productIds.forEach(this::deleteRecommendations);
 	}
 
 	@Override
 	public Review createReview(Review body) {
-		messageSources.outputReviews().send(MessageBuilder.withPayload(new Event(CREATE, body.getProductId(), body)).build());
+		publish(MessageSources.OUTPUT_REVIEWS, new Event(CREATE, body.getProductId(), body));
+		cache.invalidate(body.getProductId());
+		return body;
+	}
+
+	@Override
+	public List<Review> createReviews(List<Review> body) {
+		body.forEach(this::createReview);
 		return body;
 	}
 
@@ -170,25 +301,86 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
 		LOG.debug("Will call the getReviews API on URL: {}", url);
 
-		// Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-		return getWebClient().get().uri(url).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(Review.class).log(null, FINE).onErrorResume(error -> empty());
+		// Errors and timeouts are propagated, the composite service decides whether to return a partial response
+		return coalescer.coalesceAll(REVIEW, coalescingKey(headers, productId),
+				() -> hedger.hedgeAll(REVIEW, () -> reviewWebClient.get().uri(url).attribute(AdaptiveConcurrencyLimiter.SERVICE_ATTRIBUTE, REVIEW).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(Review.class).log(null, FINE))
+						.timeout(Duration.ofSeconds(reviewServiceTimeoutSec)));
+
+	}
+
+	@Override
+	public Flux<Review> getReviewsByProductIds(HttpHeaders headers, List<Integer> productIds) {
+
+		URI url = UriComponentsBuilder.fromUriString(reviewServiceUrl + "/reviews").queryParam("productIds", productIds).build().toUri();
 
+		LOG.debug("Will call the getReviewsByProductIds API on URL: {}", url);
+
+		// Errors and timeouts are propagated, the composite service decides whether to return a partial response
+		return reviewWebClient.get().uri(url).attribute(AdaptiveConcurrencyLimiter.SERVICE_ATTRIBUTE, REVIEW).headers(h -> h.addAll(headers)).accept(MediaType.APPLICATION_NDJSON).retrieve().bodyToFlux(Review.class).log(null, FINE)
+				.timeout(Duration.ofSeconds(reviewServiceTimeoutSec));
 	}
 
 	@Override
 	public void deleteReviews(int productId) {
-		messageSources.outputReviews().send(MessageBuilder.withPayload(new Event(DELETE, productId, null)).build());
+		publish(MessageSources.OUTPUT_REVIEWS, new Event(DELETE, productId, null));
+		cache.invalidate(productId);
 	}
 
-	private WebClient getWebClient() {
-		if (webClient == null) {
-			webClient = webClientBuilder.build();
+	@Override
+	public void deleteReviewsByProductIds(List<Integer> productIds) {
+		productIds.forEach(this::deleteReviews);
+	}
+
+	/**
+	 * Publishes the events of a whole product aggregate as one write operation, either all of them are published or none.
+	 * With aggregateEvents one PRODUCT_AGGREGATE_CREATED event is published per core service, instead of one CREATE event
+	 * per product, recommendation and review.
+	 */
+	public void createProductAggregate(ProductAggregate body) {
+		int productId = body.getProductId();
+		List<OutboxMessage> messages = new ArrayList<>();
+
+		if (aggregateEvents) {
+			messages.add(new OutboxMessage(MessageSources.OUTPUT_PRODUCTS, new Event(PRODUCT_AGGREGATE_CREATED, productId, body)));
+			messages.add(new OutboxMessage(MessageSources.OUTPUT_RECOMMENDATIONS, new Event(PRODUCT_AGGREGATE_CREATED, productId, body)));
+			messages.add(new OutboxMessage(MessageSources.OUTPUT_REVIEWS, new Event(PRODUCT_AGGREGATE_CREATED, productId, body)));
+		} else {
+			Product product = new Product(productId, body.getName(), body.getWeight(), null);
+			messages.add(new OutboxMessage(MessageSources.OUTPUT_PRODUCTS, new Event(CREATE, productId, product)));
+			if (body.getRecommendations() != null) {
+				body.getRecommendations().forEach(r -> messages.add(new OutboxMessage(MessageSources.OUTPUT_RECOMMENDATIONS,
+						new Event(CREATE, productId, new Recommendation(productId, r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null)))));
+			}
+			if (body.getReviews() != null) {
+				body.getReviews().forEach(r -> messages.add(new OutboxMessage(MessageSources.OUTPUT_REVIEWS,
+						new Event(CREATE, productId, new Review(productId, r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent(), null)))));
+			}
 		}
-		return webClient;
+
+		outbox.publish(messages);
+		cache.invalidate(productId);
+	}
+
+	/**
+	 * Publishes the delete events of a whole product aggregate as one write operation.
+	 */
+	public void deleteProductAggregate(int productId) {
+		outbox.publish(Arrays.asList(
+				new OutboxMessage(MessageSources.OUTPUT_PRODUCTS, new Event(DELETE, productId, null)),
+				new OutboxMessage(MessageSources.OUTPUT_RECOMMENDATIONS, new Event(DELETE, productId, null)),
+				new OutboxMessage(MessageSources.OUTPUT_REVIEWS, new Event(DELETE, productId, null))));
+		cache.invalidate(productId);
+	}
+
+	private void publish(String binding, Event<Integer, ?> event) {
+		outbox.publish(Collections.singletonList(new OutboxMessage(binding, event)));
 	}
 
-	private WebClient getAuthorizedWebClient() {
-		return authorizedWebClient;
+	/**
+	 * Calls for the same productId are only identical if they are made with the same credentials.
+	 */
+	private static Object coalescingKey(HttpHeaders headers, int productId) {
+		return Arrays.asList(productId, headers.getFirst(HttpHeaders.AUTHORIZATION));
 	}
 
 	private Throwable handleException(Throwable ex) {
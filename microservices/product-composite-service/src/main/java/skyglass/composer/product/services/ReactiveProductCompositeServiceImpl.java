@@ -0,0 +1,71 @@
+package skyglass.composer.product.services;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.ReactiveProductCompositeService;
+
+/**
+ * WebFlux implementation of the composite API, active when the application runs with spring.main.web-application-type=reactive.
+ * The security context is read from the Reactor context instead of the thread bound SecurityContextHolder.
+ */
+@RestController
+@RequestMapping("/api")
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveProductCompositeServiceImpl implements ReactiveProductCompositeService {
+
+	private final ProductCompositeAggregator aggregator;
+
+	@Autowired
+	public ReactiveProductCompositeServiceImpl(ProductCompositeAggregator aggregator) {
+		this.aggregator = aggregator;
+	}
+
+	@Override
+	public Mono<Void> createCompositeProduct(ProductAggregate body) {
+		// publishing to the message broker is blocking, keep it off the event loop
+		return getSecurityContext()
+				.flatMap(sc -> Mono.fromRunnable(() -> aggregator.internalCreateCompositeProduct(sc, body)).subscribeOn(Schedulers.boundedElastic()))
+				.then();
+	}
+
+	@Override
+	public Mono<ProductAggregate> getCompositeProduct(HttpHeaders requestHeaders, int productId) {
+		return getSecurityContext().flatMap(sc -> aggregator.getCompositeProduct(sc, requestHeaders, productId));
+	}
+
+	@Override
+	public Flux<ProductAggregate> getCompositeProducts(HttpHeaders requestHeaders, List<Integer> productIds) {
+		return getSecurityContext().flatMapMany(sc -> aggregator.getCompositeProducts(sc, requestHeaders, productIds));
+	}
+
+	@Override
+	public Flux<ProductAggregate> exportCompositeProducts(HttpHeaders requestHeaders, int fromProductId) {
+		return getSecurityContext().flatMapMany(sc -> aggregator.exportCompositeProducts(sc, requestHeaders, fromProductId));
+	}
+
+	@Override
+	public Mono<Void> deleteCompositeProduct(int productId) {
+		return getSecurityContext()
+				.flatMap(sc -> Mono.fromRunnable(() -> aggregator.internalDeleteCompositeProduct(sc, productId)).subscribeOn(Schedulers.boundedElastic()))
+				.then();
+	}
+
+	private Mono<SecurityContext> getSecurityContext() {
+		return ReactiveSecurityContextHolder.getContext().defaultIfEmpty(new SecurityContextImpl());
+	}
+
+}
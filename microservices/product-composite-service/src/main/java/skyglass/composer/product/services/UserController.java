@@ -3,6 +3,8 @@ package skyglass.composer.product.services;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -20,6 +22,7 @@ import skyglass.composer.product.configuration.SecurityContextUtils;
 
 @RestController
 @RequestMapping("/api/user")
+@ConditionalOnWebApplication(type = Type.SERVLET)
 @Api(description = "REST API for user information.")
 public class UserController {
 
@@ -0,0 +1,107 @@
+package skyglass.composer.product.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SlotStoreTests {
+
+	// a value of up to 12 bytes fits into a slot of 32 bytes
+	private static final int SLOT_SIZE = 32;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void TestCollidingKeyReplacesValue() throws Exception {
+
+		// every key maps to the only slot
+		SlotStore store = new SlotStore(null, 1, SLOT_SIZE);
+		assertThat(store.put(1, bytes("first"), 100)).isTrue();
+		assertThat(store.put(2, bytes("second"), 200)).isTrue();
+
+		assertThat(store.get(1)).isNull();
+		assertThat(value(store.get(2))).isEqualTo("second");
+
+		// removing the replaced key leaves the value of the other key in place
+		store.remove(1);
+		assertThat(value(store.get(2))).isEqualTo("second");
+		store.remove(2);
+		assertThat(store.get(2)).isNull();
+	}
+
+	@Test
+	public void TestValueTooLargeIsNotStored() throws Exception {
+
+		SlotStore store = new SlotStore(null, 1, SLOT_SIZE);
+		assertThat(store.put(1, bytes("twelve-bytes"), 100)).isTrue();
+
+		assertThat(store.put(1, bytes("thirteen-byte"), 200)).isFalse();
+		assertThat(store.put(2, bytes("thirteen-byte"), 200)).isFalse();
+
+		// the stored value is not touched
+		SlotStore.Entry entry = store.get(1);
+		assertThat(value(entry)).isEqualTo("twelve-bytes");
+		assertThat(entry.storedAtMillis).isEqualTo(100);
+	}
+
+	@Test
+	public void TestReopensMappedFile() throws Exception {
+
+		Path file = directory.resolve("cache").resolve("slots");
+		SlotStore store = new SlotStore(file, 4, SLOT_SIZE);
+		store.put(1, bytes("value"), 100);
+
+		SlotStore reopened = new SlotStore(file, 4, SLOT_SIZE);
+		SlotStore.Entry entry = reopened.get(1);
+		assertThat(value(entry)).isEqualTo("value");
+		assertThat(entry.storedAtMillis).isEqualTo(100);
+	}
+
+	@Test
+	public void TestLayoutMismatchClearsFile() throws Exception {
+
+		Path file = directory.resolve("slots");
+		new SlotStore(file, 4, SLOT_SIZE).put(1, bytes("value"), 100);
+
+		// the same file size with another slot size
+		SlotStore resized = new SlotStore(file, 2, 2 * SLOT_SIZE);
+		assertThat(Files.size(file)).isEqualTo(12 + 4 * SLOT_SIZE);
+		assertThat(resized.get(1)).isNull();
+
+		// another file size
+		resized.put(1, bytes("value"), 100);
+		assertThat(new SlotStore(file, 8, SLOT_SIZE).get(1)).isNull();
+
+		// the cleared file is initialized with the new layout
+		SlotStore reopened = new SlotStore(file, 8, SLOT_SIZE);
+		reopened.put(1, bytes("value"), 100);
+		assertThat(value(new SlotStore(file, 8, SLOT_SIZE).get(1))).isEqualTo("value");
+	}
+
+	@Test
+	public void TestShrunkFileKeepsValuesAfterRestart() throws Exception {
+
+		Path file = directory.resolve("slots");
+		new SlotStore(file, 8, SLOT_SIZE);
+
+		SlotStore shrunk = new SlotStore(file, 4, SLOT_SIZE);
+		assertThat(Files.size(file)).isEqualTo(12 + 4 * SLOT_SIZE);
+		shrunk.put(1, bytes("value"), 100);
+
+		assertThat(value(new SlotStore(file, 4, SLOT_SIZE).get(1))).isEqualTo("value");
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(UTF_8);
+	}
+
+	private static String value(SlotStore.Entry entry) {
+		return new String(entry.value, UTF_8);
+	}
+}
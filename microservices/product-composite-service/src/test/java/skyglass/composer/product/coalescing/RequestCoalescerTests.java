@@ -0,0 +1,101 @@
+package skyglass.composer.product.coalescing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+public class RequestCoalescerTests {
+
+	private final RequestCoalescer coalescer = new RequestCoalescer(new SimpleMeterRegistry(), true);
+
+	private final AtomicInteger subscriptions = new AtomicInteger();
+
+	@Test
+	public void TestConcurrentCallsSubscribeOnce() throws Exception {
+
+		Sinks.One<String> result = Sinks.one();
+		int callers = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<CompletableFuture<String>>> futures = new ArrayList<>();
+		for (int i = 0; i < callers; i++) {
+			futures.add(executor.submit(() -> {
+				start.await();
+				return coalescer.coalesce("product", 1, () -> call(result.asMono())).toFuture();
+			}));
+		}
+		start.countDown();
+
+		List<CompletableFuture<String>> values = new ArrayList<>();
+		for (Future<CompletableFuture<String>> future : futures) {
+			values.add(future.get(5, TimeUnit.SECONDS));
+		}
+		result.tryEmitValue("value");
+
+		for (CompletableFuture<String> value : values) {
+			assertThat(value.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+		}
+		assertThat(subscriptions.get()).isEqualTo(1);
+		executor.shutdown();
+	}
+
+	@Test
+	public void TestCallIsForgottenAfterSuccess() {
+
+		assertThat(coalescer.coalesce("product", 1, () -> call(Mono.just("first"))).block()).isEqualTo("first");
+		assertThat(coalescer.coalesce("product", 1, () -> call(Mono.just("second"))).block()).isEqualTo("second");
+
+		assertThat(subscriptions.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void TestErrorIsNotCached() {
+
+		Mono<String> failing = coalescer.coalesce("product", 1, () -> call(Mono.error(new IllegalStateException("failed"))));
+		assertThatThrownBy(failing::block).isInstanceOf(IllegalStateException.class);
+
+		// a later caller makes its own call
+		assertThat(coalescer.coalesce("product", 1, () -> call(Mono.just("value"))).block()).isEqualTo("value");
+		assertThat(subscriptions.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void TestCallIsCancelledWhenAllSubscribersCancel() {
+
+		AtomicInteger cancels = new AtomicInteger();
+		Disposable first = coalescer.coalesce("product", 1, () -> call(Mono.<String> never().doOnCancel(cancels::incrementAndGet))).subscribe();
+		Disposable second = coalescer.coalesce("product", 1, () -> call(Mono.<String> never().doOnCancel(cancels::incrementAndGet))).subscribe();
+		assertThat(subscriptions.get()).isEqualTo(1);
+
+		// the other subscriber still waits for the call
+		first.dispose();
+		assertThat(cancels.get()).isEqualTo(0);
+
+		second.dispose();
+		assertThat(cancels.get()).isEqualTo(1);
+
+		// the cancelled call is forgotten, a later caller makes its own call
+		assertThat(coalescer.coalesce("product", 1, () -> call(Mono.just("value"))).block()).isEqualTo("value");
+		assertThat(subscriptions.get()).isEqualTo(2);
+	}
+
+	private Mono<String> call(Mono<String> result) {
+		return result.doOnSubscribe(s -> subscriptions.incrementAndGet());
+	}
+}
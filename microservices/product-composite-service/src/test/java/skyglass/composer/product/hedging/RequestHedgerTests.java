@@ -0,0 +1,56 @@
+package skyglass.composer.product.hedging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+public class RequestHedgerTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	// every call earns a whole hedge
+	private final RequestHedger hedger = new RequestHedger(registry, true, List.of("product"), 0.95, 5, 100, 60);
+
+	@Test
+	public void TestCancelledPrimaryIsNotRecorded() throws Exception {
+
+		for (int i = 0; i < 5; i++) {
+			int n = i;
+			assertThat(hedger.hedge("product", () -> Mono.just(n).delayElement(Duration.ofMillis(20))).block()).isEqualTo(n);
+		}
+		Timer latency = registry.get("hedging.latency").timer();
+		assertThat(latency.count()).isEqualTo(5);
+
+		// the hedge delay is refreshed once a second from the recorded latency
+		Thread.sleep(1100);
+
+		AtomicInteger calls = new AtomicInteger();
+		String value = hedger.hedge("product", () -> calls.incrementAndGet() == 1
+				? Mono.just("primary").delayElement(Duration.ofSeconds(2))
+				: Mono.just("hedge")).block();
+
+		assertThat(value).isEqualTo("hedge");
+		assertThat(registry.get("hedging.won").counter().count()).isEqualTo(1);
+		// the cancelled primary adds no sample
+		assertThat(latency.count()).isEqualTo(5);
+		assertThat(latency.max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(20);
+	}
+
+	@Test
+	public void TestFailedPrimaryIsRecorded() {
+
+		Mono<String> failing = hedger.hedge("product", () -> Mono.<String> error(new IllegalStateException("failed")).delaySubscription(Duration.ofMillis(10)));
+		assertThat(failing.onErrorReturn("fallback").block()).isEqualTo("fallback");
+
+		assertThat(registry.get("hedging.latency").timer().count()).isEqualTo(1);
+	}
+}
@@ -0,0 +1,63 @@
+package skyglass.composer.product.limiter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.URI;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+public class AdaptiveConcurrencyLimiterTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	// one call at a time, further calls wait up to 200 ms
+	private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(registry, true, 1, 1, 1, 0.9, 2.0, 10, 200);
+
+	private final ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://product/product/1"))
+			.attribute(AdaptiveConcurrencyLimiter.SERVICE_ATTRIBUTE, "product").build();
+
+	@Test
+	public void TestCancelledQueuedCallLeavesTheQueue() {
+
+		Disposable first = limiter.filter(request, r -> Mono.never()).subscribe();
+		Disposable second = limiter.filter(request, r -> Mono.never()).subscribe();
+		assertThat(gauge("limiter.inflight")).isEqualTo(1);
+		assertThat(gauge("limiter.queued")).isEqualTo(1);
+
+		second.dispose();
+		assertThat(gauge("limiter.queued")).isEqualTo(0);
+		assertThat(gauge("limiter.inflight")).isEqualTo(1);
+
+		// the permit of the cancelled call in flight is released as well
+		first.dispose();
+		assertThat(gauge("limiter.inflight")).isEqualTo(0);
+		assertThat(limiter.filter(request, r -> Mono.just(ClientResponse.create(HttpStatus.OK).build())).block().statusCode()).isEqualTo(HttpStatus.OK);
+	}
+
+	@Test
+	public void TestTimedOutQueuedCallReleasesItsPermit() {
+
+		Disposable first = limiter.filter(request, r -> Mono.never()).subscribe();
+
+		assertThatThrownBy(() -> limiter.filter(request, r -> Mono.never()).block()).isInstanceOf(LimitExceededException.class);
+		assertThat(gauge("limiter.queued")).isEqualTo(0);
+		assertThat(registry.get("limiter.rejected").functionCounter().count()).isEqualTo(1);
+
+		first.dispose();
+		assertThat(gauge("limiter.inflight")).isEqualTo(0);
+		assertThat(limiter.filter(request, r -> Mono.just(ClientResponse.create(HttpStatus.OK).build())).block().statusCode()).isEqualTo(HttpStatus.OK);
+	}
+
+	private double gauge(String name) {
+		return registry.get(name).tag("service", "product").gauge().value();
+	}
+}
@@ -0,0 +1,92 @@
+package skyglass.composer.product.limiter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class AimdLimitTests {
+
+	private static final long RTT = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void TestLimitGrowsByOnePerLimitCalls() {
+
+		AimdLimit limit = new AimdLimit(10, 1, 100, 0.5, 2.0, 10, Duration.ZERO);
+
+		// less than half of the limit is used, the limit does not grow
+		for (int i = 0; i < 20; i++) {
+			call(limit, RTT, false);
+		}
+		assertThat(limit.getLimit()).isEqualTo(10);
+
+		Deque<AimdLimit.Permit> held = new ArrayDeque<>();
+		for (int i = 0; i < 10; i++) {
+			held.add(acquire(limit));
+		}
+		// every call adds 1 / limit while the limit is used
+		for (int i = 0; i < 12; i++) {
+			held.poll().release(RTT, false);
+			held.add(acquire(limit));
+		}
+		assertThat(limit.getLimit()).isEqualTo(11);
+		held.add(acquire(limit));
+		assertThat(limit.getInFlight()).isEqualTo(11);
+	}
+
+	@Test
+	public void TestLimitShrinksOnceOnFailures() {
+
+		AimdLimit limit = new AimdLimit(10, 1, 100, 0.5, 2.0, 10, Duration.ZERO);
+
+		long slowRtt = TimeUnit.SECONDS.toNanos(10);
+		call(limit, slowRtt, true);
+		assertThat(limit.getLimit()).isEqualTo(5);
+
+		// failures within one long term round trip time decrease the limit only once
+		call(limit, slowRtt, true);
+		assertThat(limit.getLimit()).isEqualTo(5);
+	}
+
+	@Test
+	public void TestLimitShrinksWhenRoundTripTimeRises() {
+
+		AimdLimit limit = new AimdLimit(10, 1, 100, 0.5, 2.0, 10, Duration.ZERO);
+
+		for (int i = 0; i < 20; i++) {
+			call(limit, RTT, false);
+		}
+		assertThat(limit.getLimit()).isEqualTo(10);
+
+		// the short term average rises above twice the long term average
+		call(limit, 100 * RTT, false);
+		assertThat(limit.getLimit()).isEqualTo(5);
+	}
+
+	@Test
+	public void TestLimitNeverDropsBelowMinimum() throws Exception {
+
+		AimdLimit limit = new AimdLimit(10, 3, 100, 0.5, 2.0, 10, Duration.ZERO);
+
+		for (int i = 0; i < 5; i++) {
+			call(limit, RTT, true);
+			// let one long term round trip time pass, so every failure decreases the limit
+			Thread.sleep(2);
+		}
+		assertThat(limit.getLimit()).isEqualTo(3);
+	}
+
+	private AimdLimit.Permit acquire(AimdLimit limit) {
+		AimdLimit.Permit permit = limit.newPermit();
+		limit.acquire(permit, "product").block();
+		return permit;
+	}
+
+	private void call(AimdLimit limit, long rttNanos, boolean failed) {
+		acquire(limit).release(rttNanos, failed);
+	}
+}
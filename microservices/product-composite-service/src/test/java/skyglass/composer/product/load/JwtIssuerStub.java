@@ -0,0 +1,71 @@
+package skyglass.composer.product.load;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Stand-in for the Keycloak realm: signs RS256 access tokens with an in-memory key pair and provides decoders that
+ * verify them with the public key, so the resource server does the same signature check per request as in production
+ * without fetching a JWK set.
+ */
+class JwtIssuerStub {
+
+	static final String ISSUER = "http://localhost/auth/realms/load-test";
+
+	private final KeyPair keyPair;
+
+	JwtIssuerStub() {
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(2048);
+			this.keyPair = generator.generateKeyPair();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	String issueToken(String username) {
+		Instant now = Instant.now();
+		JWTClaimsSet claims = new JWTClaimsSet.Builder()
+				.issuer(ISSUER)
+				.subject(username)
+				.claim("preferred_username", username)
+				.claim("scope", "openid profile email")
+				.issueTime(Date.from(now))
+				.expirationTime(Date.from(now.plus(1, ChronoUnit.HOURS)))
+				.build();
+		SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.RS256), claims);
+		try {
+			jwt.sign(new RSASSASigner((RSAPrivateKey) keyPair.getPrivate()));
+		} catch (JOSEException e) {
+			throw new IllegalStateException(e);
+		}
+		return jwt.serialize();
+	}
+
+	JwtDecoder jwtDecoder() {
+		return NimbusJwtDecoder.withPublicKey((RSAPublicKey) keyPair.getPublic()).build();
+	}
+
+	ReactiveJwtDecoder reactiveJwtDecoder() {
+		return NimbusReactiveJwtDecoder.withPublicKey((RSAPublicKey) keyPair.getPublic()).build();
+	}
+}
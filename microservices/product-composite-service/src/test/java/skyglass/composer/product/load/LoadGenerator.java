@@ -0,0 +1,140 @@
+package skyglass.composer.product.load;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Open model load generator: requests are started at a fixed arrival rate no matter how many are still outstanding,
+ * the way independent users arrive, instead of a fixed number of clients that wait for their previous response.
+ *
+ * Latency is measured from the time a request was scheduled to start, not from when it was actually sent, so a stalled
+ * generator or a saturated client connection pool shows up in the percentiles instead of hiding them (coordinated omission).
+ * Requests that would exceed maxInFlight are not sent and counted as dropped.
+ */
+class LoadGenerator {
+
+	static class StepResult {
+
+		final int targetRps;
+
+		final double achievedRps;
+
+		final long succeeded;
+
+		final long failed;
+
+		final long dropped;
+
+		final Histogram latencies;
+
+		StepResult(int targetRps, double achievedRps, long succeeded, long failed, long dropped, Histogram latencies) {
+			this.targetRps = targetRps;
+			this.achievedRps = achievedRps;
+			this.succeeded = succeeded;
+			this.failed = failed;
+			this.dropped = dropped;
+			this.latencies = latencies;
+		}
+
+		long total() {
+			return succeeded + failed + dropped;
+		}
+
+		double errorRatio() {
+			return total() == 0 ? 0 : (double) (failed + dropped) / total();
+		}
+
+		double percentileMs(double percentile) {
+			return latencies.getValueAtPercentile(percentile) / 1000.0;
+		}
+
+		static String header() {
+			return String.format("%10s %10s %10s %10s %10s %10s %10s %10s %10s", "target/s", "achieved/s", "ok", "errors", "dropped", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms");
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%10d %10.1f %10d %10d %10d %10.2f %10.2f %10.2f %10.2f", targetRps, achievedRps, succeeded, failed, dropped,
+					percentileMs(50), percentileMs(95), percentileMs(99), percentileMs(99.9));
+		}
+	}
+
+	private final LongFunction<Mono<?>> request;
+
+	private final int maxInFlight;
+
+	/**
+	 * @param request creates the request with the given sequence number, must not block
+	 * @param maxInFlight upper limit of outstanding requests, protects the generator itself from running out of memory
+	 */
+	LoadGenerator(LongFunction<Mono<?>> request, int maxInFlight) {
+		this.request = request;
+		this.maxInFlight = maxInFlight;
+	}
+
+	StepResult run(int targetRps, Duration duration, Duration drainTimeout) {
+		Histogram latencies = new ConcurrentHistogram(3);
+		AtomicLong succeeded = new AtomicLong();
+		AtomicLong failed = new AtomicLong();
+		long dropped = 0;
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicLong lastCompletion = new AtomicLong();
+
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / targetRps;
+		long count = targetRps * duration.getSeconds();
+		long start = System.nanoTime();
+		lastCompletion.set(start);
+
+		for (long i = 0; i < count; i++) {
+			long intendedStart = start + i * intervalNanos;
+			long wait;
+			while ((wait = intendedStart - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+
+			if (inFlight.get() >= maxInFlight) {
+				dropped++;
+				continue;
+			}
+
+			inFlight.incrementAndGet();
+			request.apply(i).subscribe(
+					null,
+					error -> {
+						failed.incrementAndGet();
+						complete(inFlight, lastCompletion);
+					},
+					() -> {
+						long now = complete(inFlight, lastCompletion);
+						latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intendedStart));
+						succeeded.incrementAndGet();
+					});
+		}
+
+		long drainDeadline = System.nanoTime() + drainTimeout.toNanos();
+		while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		// requests still outstanding after the drain timeout count as failed
+		long timedOut = inFlight.get();
+
+		double elapsedSec = Math.max(lastCompletion.get() - start, 1) / 1_000_000_000.0;
+		return new StepResult(targetRps, succeeded.get() / elapsedSec, succeeded.get(), failed.get() + timedOut, dropped, latencies);
+	}
+
+	private static long complete(AtomicInteger inFlight, AtomicLong lastCompletion) {
+		long now = System.nanoTime();
+		lastCompletion.accumulateAndGet(now, Math::max);
+		inFlight.decrementAndGet();
+		return now;
+	}
+}
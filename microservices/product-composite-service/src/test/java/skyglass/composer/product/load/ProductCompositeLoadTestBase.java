@@ -0,0 +1,245 @@
+package skyglass.composer.product.load;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.reactive.context.ReactiveWebApplicationContext;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.converter.xml.Jaxb2RootElementHttpMessageConverter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import skyglass.composer.product.exception.UserContext;
+import skyglass.composer.product.load.LoadGenerator.StepResult;
+import skyglass.composer.product.load.StubServer.Behaviour;
+import skyglass.composer.product.load.StubServer.Kind;
+
+/**
+ * Measures the throughput of the composite service on a laptop: the application is started against in-process stubs of
+ * the product, recommendation and review services and a stand-in JWT issuer, messaging goes to the test binder, tracing is
+ * disabled. No RabbitMQ, Kafka, Mongo, MySQL or Keycloak is needed.
+ *
+ * The arrival rate is stepped up and every step reports p50/p95/p99/p99.9 latency. The highest rate whose p99 stays within
+ * the SLO with an error ratio below the limit, while actually being served at that rate, is reported as max sustainable RPS.
+ *
+ * Excluded from the regular build, run it with: mvn test -pl product-composite-service -am -Pload-test
+ * The servlet stack is measured by {@link ServletProductCompositeLoadTest}, the WebFlux stack by
+ * {@link ReactiveProductCompositeLoadTest} when -Dloadtest.mode=reactive is given.
+ *
+ * Tunable with system properties, e.g. -Dloadtest.rates=200,400,800 -Dloadtest.stub.latencyMs=50:
+ * <ul>
+ * <li>loadtest.endpoint: single (GET /api/product/{productId}, default) or batch (POST /api/products:batchGet)</li>
+ * <li>loadtest.batchSize, loadtest.firstProductId, loadtest.productIdCount: product ids per batch request and the range of product ids requested</li>
+ * <li>loadtest.rates, loadtest.stepSec, loadtest.warmupSec, loadtest.warmupRate: the load steps in requests per second</li>
+ * <li>loadtest.sloP99Ms, loadtest.maxErrorRatio, loadtest.maxInFlight: the criteria of a sustainable step</li>
+ * <li>loadtest.cacheEnabled: the product aggregate cache, disabled by default so every request reaches the stubs</li>
+ * <li>loadtest.stub.latencyMs, jitterMs, jitterDistribution (uniform or exponential), errorRate, summaryCount:
+ * stub behaviour, also settable per stub as e.g. loadtest.stub.review.latencyMs</li>
+ * </ul>
+ */
+@Tag("load")
+@TestPropertySource(properties = {
+		// per request logging and the stack traces of failed requests would dominate the measurement
+		"logging.level.root=ERROR",
+		"logging.level.skyglass.composer.product.load=INFO" })
+abstract class ProductCompositeLoadTestBase {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeLoadTestBase.class);
+
+	private static final JwtIssuerStub JWT_ISSUER = new JwtIssuerStub();
+
+	private static final List<StubServer> STUBS = new ArrayList<>();
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private ApplicationContext context;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@TestConfiguration(proxyBeanMethods = false)
+	static class StandIns {
+
+		@Bean
+		JwtDecoder jwtDecoder() {
+			return JWT_ISSUER.jwtDecoder();
+		}
+
+		@Bean
+		ReactiveJwtDecoder reactiveJwtDecoder() {
+			return JWT_ISSUER.reactiveJwtDecoder();
+		}
+
+		// required by CustomRestExceptionHandler of the servlet stack, this module has no implementations of them
+		@Bean
+		UserContext userContext() {
+			return new UserContext() {
+
+				@Override
+				public String getUsernameFromCtx() {
+					return "load-test";
+				}
+
+				@Override
+				public String getUsernameFromAuthentication(Authentication authentication) {
+					return authentication.getName();
+				}
+			};
+		}
+
+		@Bean
+		Jaxb2RootElementHttpMessageConverter jaxb2RootElementHttpMessageConverter() {
+			return new Jaxb2RootElementHttpMessageConverter();
+		}
+	}
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		ObjectMapper stubMapper = new ObjectMapper();
+		StubServer product = start(new StubServer(Kind.PRODUCT, Behaviour.fromSystemProperties(Kind.PRODUCT), stubMapper));
+		StubServer recommendation = start(new StubServer(Kind.RECOMMENDATION, Behaviour.fromSystemProperties(Kind.RECOMMENDATION), stubMapper));
+		StubServer review = start(new StubServer(Kind.REVIEW, Behaviour.fromSystemProperties(Kind.REVIEW), stubMapper));
+
+		registry.add("app.product-service.url", product::getUrl);
+		registry.add("app.recommendation-service.url", recommendation::getUrl);
+		registry.add("app.review-service.url", review::getUrl);
+
+		registry.add("app.product-composite.cache.enabled", () -> property("loadtest.cacheEnabled", "false"));
+
+		registry.add("opentracing.jaeger.enabled", () -> "false");
+
+		// only read at startup, tokens are issued and verified by JWT_ISSUER
+		registry.add("spring.security.oauth2.client.registration.keycloak.client-id", () -> "load-test");
+		registry.add("spring.security.oauth2.client.registration.keycloak.client-secret", () -> "load-test");
+		registry.add("spring.security.oauth2.client.registration.keycloak.authorization-grant-type", () -> "authorization_code");
+		registry.add("spring.security.oauth2.client.registration.keycloak.redirect-uri", () -> "http://localhost/login/oauth2/code/keycloak");
+		registry.add("spring.security.oauth2.client.provider.keycloak.authorization-uri", () -> JwtIssuerStub.ISSUER + "/protocol/openid-connect/auth");
+		registry.add("spring.security.oauth2.client.provider.keycloak.token-uri", () -> JwtIssuerStub.ISSUER + "/protocol/openid-connect/token");
+		registry.add("spring.security.oauth2.client.provider.keycloak.user-info-uri", () -> JwtIssuerStub.ISSUER + "/protocol/openid-connect/userinfo");
+	}
+
+	private static StubServer start(StubServer stub) {
+		STUBS.add(stub.start());
+		return stub;
+	}
+
+	@AfterAll
+	static void stopStubs() {
+		STUBS.forEach(StubServer::stop);
+	}
+
+	@Test
+	void findMaxSustainableRps() {
+		String stack = context instanceof ReactiveWebApplicationContext ? "reactive" : "servlet";
+		String endpoint = property("loadtest.endpoint", "single");
+		int batchSize = Integer.parseInt(property("loadtest.batchSize", "10"));
+		int productIdCount = Integer.parseInt(property("loadtest.productIdCount", "1000"));
+		int firstProductId = Integer.parseInt(property("loadtest.firstProductId", "100"));
+		List<Integer> rates = List.of(property("loadtest.rates", "50,100,200,400,800,1600").split(",")).stream()
+				.map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+		Duration step = Duration.ofSeconds(Long.parseLong(property("loadtest.stepSec", "20")));
+		// a cold JVM serves a fraction of its eventual rate, warming up at the first rate would already overload it
+		Duration warmup = Duration.ofSeconds(Long.parseLong(property("loadtest.warmupSec", "30")));
+		int warmupRate = Integer.parseInt(property("loadtest.warmupRate", String.valueOf(Math.max(1, rates.get(0) / 2))));
+		double sloP99Ms = Double.parseDouble(property("loadtest.sloP99Ms", "250"));
+		double maxErrorRatio = Double.parseDouble(property("loadtest.maxErrorRatio", "0.001"));
+		int maxInFlight = Integer.parseInt(property("loadtest.maxInFlight", "2000"));
+
+		ConnectionProvider connections = ConnectionProvider.builder("load-generator")
+				.maxConnections(maxInFlight)
+				.pendingAcquireMaxCount(-1)
+				.build();
+		WebClient client = WebClient.builder()
+				.baseUrl("http://localhost:" + port)
+				.clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+				.defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + JWT_ISSUER.issueToken("load-test"))
+				.build();
+
+		LoadGenerator generator = new LoadGenerator(i -> request(client, endpoint, batchSize, firstProductId, productIdCount, i), maxInFlight);
+
+		LOG.info("Load test of {} requests against the {} stack, stubs: {}", endpoint, stack,
+				STUBS.stream().map(s -> s.getKind() + " " + s.getBehaviour()).collect(Collectors.joining("; ")));
+
+		StepResult warmupResult = generator.run(warmupRate, warmup, Duration.ofSeconds(10));
+		LOG.info("Warmup at {}/s: {} ok, {} errors", warmupRate, warmupResult.succeeded, warmupResult.failed + warmupResult.dropped);
+		assertTrue(warmupResult.succeeded > 0, "no request succeeded during warmup, the composite service or its stubs are not wired up");
+
+		List<StepResult> results = new ArrayList<>();
+		int maxSustainableRps = 0;
+		for (int rate : rates) {
+			StepResult result = generator.run(rate, step, Duration.ofSeconds(10));
+			results.add(result);
+			LOG.info("{}\n{}", StepResult.header(), result);
+
+			boolean sustainable = result.percentileMs(99) <= sloP99Ms
+					&& result.errorRatio() <= maxErrorRatio
+					&& result.achievedRps >= 0.95 * rate;
+			if (!sustainable) {
+				break;
+			}
+			maxSustainableRps = rate;
+		}
+
+		StringBuilder report = new StringBuilder(StepResult.header());
+		results.forEach(r -> report.append('\n').append(r));
+		LOG.info("Results (SLO p99 <= {} ms, error ratio <= {}):\n{}\nMax sustainable RPS: {}", sloP99Ms, maxErrorRatio, report, maxSustainableRps);
+
+		registry.find("limiter.limit").gauges().forEach(limit -> LOG.info("Concurrency limit of {} calls: {}, {} rejected", limit.getId().getTag("service"),
+				(int) limit.value(), (long) registry.get("limiter.rejected").tags(limit.getId().getTags()).functionCounter().count()));
+		registry.find("hedging.fired").counters().forEach(fired -> LOG.info("Hedges of {} calls: {} fired, {} won", fired.getId().getTag("service"),
+				(long) fired.count(), (long) registry.get("hedging.won").tags(fired.getId().getTags()).counter().count()));
+		registry.find("lastknowngood.served").counters().forEach(served -> LOG.info("Last known good {} served: {}", served.getId().getTag("kind"), (long) served.count()));
+		registry.find("coalescing.calls").counters().forEach(calls -> LOG.info("Coalescing of {} calls: {} made, {} coalesced", calls.getId().getTag("call"),
+				(long) calls.count(), (long) registry.find("coalescing.coalesced").tags(calls.getId().getTags()).counters().stream().mapToDouble(c -> c.count()).sum()));
+	}
+
+	private Mono<?> request(WebClient client, String endpoint, int batchSize, int firstProductId, int productIdCount, long sequence) {
+		if ("batch".equals(endpoint)) {
+			List<Integer> productIds = LongStream.range(0, batchSize)
+					.mapToObj(i -> firstProductId + (int) ((sequence * batchSize + i) % productIdCount))
+					.collect(Collectors.toList());
+			return client.post().uri("/api/products:batchGet")
+					.contentType(MediaType.APPLICATION_JSON)
+					.bodyValue(productIds)
+					.retrieve().toBodilessEntity();
+		}
+		int productId = firstProductId + (int) (sequence % productIdCount);
+		return client.get().uri("/api/product/{productId}", productId)
+				.retrieve().toBodilessEntity();
+	}
+
+	private static String property(String name, String defaultValue) {
+		return System.getProperty(name, defaultValue);
+	}
+}
@@ -0,0 +1,18 @@
+package skyglass.composer.product.load;
+
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import skyglass.composer.product.ProductCompositeServiceApplication;
+
+/**
+ * The load test against the WebFlux stack of the composite service, as served with the reactive profile.
+ * Runs instead of {@link ServletProductCompositeLoadTest} when -Dloadtest.mode=reactive is given.
+ */
+@SpringBootTest(classes = { ProductCompositeServiceApplication.class, ProductCompositeLoadTestBase.StandIns.class }, webEnvironment = RANDOM_PORT, properties = {
+		"spring.main.web-application-type=reactive" })
+@EnabledIfSystemProperty(named = "loadtest.mode", matches = "reactive")
+class ReactiveProductCompositeLoadTest extends ProductCompositeLoadTestBase {
+}
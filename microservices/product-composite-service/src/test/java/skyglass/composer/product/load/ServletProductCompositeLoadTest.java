@@ -0,0 +1,16 @@
+package skyglass.composer.product.load;
+
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import skyglass.composer.product.ProductCompositeServiceApplication;
+
+/**
+ * The load test against the Spring MVC stack of the composite service, the default.
+ */
+@SpringBootTest(classes = { ProductCompositeServiceApplication.class, ProductCompositeLoadTestBase.StandIns.class }, webEnvironment = RANDOM_PORT)
+@DisabledIfSystemProperty(named = "loadtest.mode", matches = "reactive")
+class ServletProductCompositeLoadTest extends ProductCompositeLoadTestBase {
+}
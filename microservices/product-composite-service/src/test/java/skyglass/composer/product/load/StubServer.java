@@ -0,0 +1,257 @@
+package skyglass.composer.product.load;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+
+import org.reactivestreams.Publisher;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+
+/**
+ * In-process stand-in for one of the core services, serving the read endpoints the composite calls with generated
+ * entities after a simulated service time.
+ *
+ * Every response is delayed by latencyMs plus a jitter drawn from the configured distribution, and fails with
+ * 500 - Internal Server Error with probability errorRate. Bulk endpoints return newline delimited JSON when asked for it.
+ */
+class StubServer {
+
+	enum Kind {
+		PRODUCT, RECOMMENDATION, REVIEW
+	}
+
+	enum JitterDistribution {
+		/** jitter uniformly distributed between 0 and jitterMs */
+		UNIFORM,
+		/** exponentially distributed jitter with mean jitterMs, gives a long tail */
+		EXPONENTIAL
+	}
+
+	static class Behaviour {
+
+		final long latencyMs;
+
+		final long jitterMs;
+
+		final JitterDistribution jitterDistribution;
+
+		final double errorRate;
+
+		final int summaryCount;
+
+		Behaviour(long latencyMs, long jitterMs, JitterDistribution jitterDistribution, double errorRate, int summaryCount) {
+			this.latencyMs = latencyMs;
+			this.jitterMs = jitterMs;
+			this.jitterDistribution = jitterDistribution;
+			this.errorRate = errorRate;
+			this.summaryCount = summaryCount;
+		}
+
+		/**
+		 * Reads the behaviour of a stub from the system properties loadtest.stub.[kind].latencyMs and so on, falling back
+		 * to loadtest.stub.latencyMs and then to the given defaults.
+		 */
+		static Behaviour fromSystemProperties(Kind kind) {
+			return new Behaviour(
+					Long.parseLong(property(kind, "latencyMs", "20")),
+					Long.parseLong(property(kind, "jitterMs", "10")),
+					JitterDistribution.valueOf(property(kind, "jitterDistribution", "exponential").toUpperCase()),
+					Double.parseDouble(property(kind, "errorRate", "0")),
+					Integer.parseInt(property(kind, "summaryCount", "3")));
+		}
+
+		private static String property(Kind kind, String name, String defaultValue) {
+			return System.getProperty("loadtest.stub." + kind.name().toLowerCase() + "." + name,
+					System.getProperty("loadtest.stub." + name, defaultValue));
+		}
+
+		Duration nextDelay() {
+			double jitter = 0;
+			if (jitterMs > 0) {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				jitter = jitterDistribution == JitterDistribution.UNIFORM
+						? random.nextDouble() * jitterMs
+						: -Math.log(1 - random.nextDouble()) * jitterMs;
+			}
+			return Duration.ofNanos((long) ((latencyMs + jitter) * 1_000_000));
+		}
+
+		boolean nextFails() {
+			return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+		}
+
+		@Override
+		public String toString() {
+			return "latency " + latencyMs + " ms, jitter " + jitterMs + " ms " + jitterDistribution.name().toLowerCase() + ", error rate " + errorRate;
+		}
+	}
+
+	private static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+	private final Kind kind;
+
+	private final Behaviour behaviour;
+
+	private final ObjectMapper mapper;
+
+	private final String serviceAddress;
+
+	private DisposableServer server;
+
+	StubServer(Kind kind, Behaviour behaviour, ObjectMapper mapper) {
+		this.kind = kind;
+		this.behaviour = behaviour;
+		this.mapper = mapper;
+		this.serviceAddress = kind.name().toLowerCase() + "-stub";
+	}
+
+	StubServer start() {
+		server = HttpServer.create()
+				.host("localhost")
+				.port(0)
+				.route(routes -> {
+					switch (kind) {
+					case PRODUCT:
+						routes.get("/api/product/{productId}", (request, response) -> single(request, response, Integer.parseInt(request.param("productId")), this::product));
+						routes.get("/api/products", (request, response) -> bulk(request, response, this::product));
+						break;
+					case RECOMMENDATION:
+						routes.get("/recommendation", (request, response) -> single(request, response, this::recommendations));
+						routes.get("/recommendations", (request, response) -> bulk(request, response, this::recommendations));
+						break;
+					case REVIEW:
+						routes.get("/review", (request, response) -> single(request, response, this::reviews));
+						routes.get("/reviews", (request, response) -> bulk(request, response, this::reviews));
+						break;
+					}
+				})
+				.bindNow();
+		return this;
+	}
+
+	void stop() {
+		if (server != null) {
+			server.disposeNow();
+		}
+	}
+
+	String getUrl() {
+		return "http://localhost:" + server.port() + (kind == Kind.PRODUCT ? "/api" : "");
+	}
+
+	Kind getKind() {
+		return kind;
+	}
+
+	Behaviour getBehaviour() {
+		return behaviour;
+	}
+
+	private Publisher<Void> single(HttpServerRequest request, HttpServerResponse response, IntFunction<Object> body) {
+		return single(request, response, productIds(request).get(0), body);
+	}
+
+	private Publisher<Void> single(HttpServerRequest request, HttpServerResponse response, int productId, IntFunction<Object> body) {
+		return respond(response, "application/json", () -> toJson(body.apply(productId)));
+	}
+
+	private Publisher<Void> bulk(HttpServerRequest request, HttpServerResponse response, IntFunction<Object> body) {
+		List<Integer> productIds = productIds(request);
+		String accept = request.requestHeaders().get(HttpHeaderNames.ACCEPT, "");
+		if (accept.contains(APPLICATION_NDJSON)) {
+			return respond(response, APPLICATION_NDJSON, () -> {
+				StringBuilder lines = new StringBuilder();
+				for (int productId : productIds) {
+					Object entities = body.apply(productId);
+					for (Object entity : entities instanceof List ? (List<?>) entities : List.of(entities)) {
+						lines.append(toJson(entity)).append('\n');
+					}
+				}
+				return lines.toString();
+			});
+		}
+		return respond(response, "application/json", () -> {
+			List<Object> all = new ArrayList<>();
+			for (int productId : productIds) {
+				Object entities = body.apply(productId);
+				if (entities instanceof List) {
+					all.addAll((List<?>) entities);
+				} else {
+					all.add(entities);
+				}
+			}
+			return toJson(all);
+		});
+	}
+
+	private Publisher<Void> respond(HttpServerResponse response, String contentType, JsonSupplier body) {
+		return Mono.delay(behaviour.nextDelay())
+				.flatMap(tick -> {
+					if (behaviour.nextFails()) {
+						return response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR).send().then();
+					}
+					return response.header(HttpHeaderNames.CONTENT_TYPE, contentType).sendString(Mono.fromCallable(body::get)).then();
+				});
+	}
+
+	private static List<Integer> productIds(HttpServerRequest request) {
+		QueryStringDecoder query = new QueryStringDecoder(request.uri());
+		List<String> values = query.parameters().getOrDefault("productIds", query.parameters().get("productId"));
+		List<Integer> productIds = new ArrayList<>();
+		for (String value : values) {
+			for (String productId : value.split(",")) {
+				productIds.add(Integer.parseInt(productId.trim()));
+			}
+		}
+		return productIds;
+	}
+
+	private Product product(int productId) {
+		return new Product(productId, "name " + productId, productId % 100, serviceAddress);
+	}
+
+	private List<Recommendation> recommendations(int productId) {
+		List<Recommendation> recommendations = new ArrayList<>(behaviour.summaryCount);
+		for (int i = 1; i <= behaviour.summaryCount; i++) {
+			recommendations.add(new Recommendation(productId, i, "author " + i, i % 5, "content " + i, serviceAddress));
+		}
+		return recommendations;
+	}
+
+	private List<Review> reviews(int productId) {
+		List<Review> reviews = new ArrayList<>(behaviour.summaryCount);
+		for (int i = 1; i <= behaviour.summaryCount; i++) {
+			reviews.add(new Review(productId, i, "author " + i, "subject " + i, "content " + i, serviceAddress));
+		}
+		return reviews;
+	}
+
+	private String toJson(Object value) {
+		try {
+			return mapper.writeValueAsString(value);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@FunctionalInterface
+	private interface JsonSupplier {
+		String get() throws Exception;
+	}
+}
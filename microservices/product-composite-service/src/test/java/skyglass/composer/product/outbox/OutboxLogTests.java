@@ -0,0 +1,178 @@
+package skyglass.composer.product.outbox;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OutboxLogTests {
+
+	// three records of ten bytes fit into a segment
+	private static final int SEGMENT_SIZE = 64;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void TestReadsAppendedRecordsInOrder() throws Exception {
+
+		OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false);
+		log.append(record(1));
+		log.append(record(2));
+
+		List<OutboxLog.Record> records = log.read(log.committed(), 10);
+		assertThat(payloads(records)).containsExactly("record-001", "record-002");
+
+		// reading again from the position after the first record
+		assertThat(payloads(log.read(records.get(0).next, 10))).containsExactly("record-002");
+		assertThat(log.read(records.get(1).next, 10)).isEmpty();
+		assertThat(payloads(log.read(log.first(), 1))).containsExactly("record-001");
+	}
+
+	@Test
+	public void TestRollsOverToNewSegment() throws Exception {
+
+		OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false);
+		for (int i = 1; i <= 7; i++) {
+			log.append(record(i));
+		}
+
+		assertThat(log.segmentCount()).isEqualTo(3);
+		assertThat(payloads(log.read(log.first(), 10))).containsExactly("record-001", "record-002", "record-003", "record-004", "record-005",
+				"record-006", "record-007");
+	}
+
+	@Test
+	public void TestCommitDeletesReadSegments() throws Exception {
+
+		OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false);
+		for (int i = 1; i <= 7; i++) {
+			log.append(record(i));
+		}
+
+		List<OutboxLog.Record> records = log.read(log.first(), 5);
+		log.commit(records.get(4).next);
+
+		assertThat(log.segmentCount()).isEqualTo(2);
+		assertThat(segmentFiles()).hasSize(2);
+		assertThat(directory.resolve("relay.offset.tmp")).doesNotExist();
+		assertThat(payloads(log.read(log.committed(), 10))).containsExactly("record-006", "record-007");
+
+		// the position survives a restart
+		log.close();
+		OutboxLog reopened = new OutboxLog(directory, SEGMENT_SIZE, false);
+		assertThat(payloads(reopened.read(reopened.committed(), 10))).containsExactly("record-006", "record-007");
+	}
+
+	@Test
+	public void TestRecoversRecordsAfterRestart() throws Exception {
+
+		OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false);
+		for (int i = 1; i <= 4; i++) {
+			log.append(record(i));
+		}
+		log.close();
+
+		OutboxLog reopened = new OutboxLog(directory, SEGMENT_SIZE, false);
+		reopened.append(record(5));
+
+		assertThat(payloads(reopened.read(reopened.committed(), 10))).containsExactly("record-001", "record-002", "record-003", "record-004",
+				"record-005");
+	}
+
+	@Test
+	public void TestTornRecordEndsLog() throws Exception {
+
+		OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false);
+		log.append(record(1));
+		log.append(record(2));
+		log.close();
+
+		// a crash in the middle of the third record leaves its length and a CRC that does not match the payload
+		try (FileChannel channel = FileChannel.open(segmentFiles().get(0), StandardOpenOption.WRITE)) {
+			ByteBuffer torn = ByteBuffer.allocate(12).putInt(10).putInt(42).put("torn".getBytes(UTF_8));
+			torn.flip();
+			channel.write(torn, 36);
+		}
+
+		OutboxLog reopened = new OutboxLog(directory, SEGMENT_SIZE, false);
+		assertThat(payloads(reopened.read(reopened.committed(), 10))).containsExactly("record-001", "record-002");
+
+		// the next record replaces the torn one
+		reopened.append(record(3));
+		reopened.close();
+		OutboxLog recovered = new OutboxLog(directory, SEGMENT_SIZE, false);
+		assertThat(payloads(recovered.read(recovered.committed(), 10))).containsExactly("record-001", "record-002", "record-003");
+	}
+
+	@Test
+	public void TestShortOffsetFileStartsAtFirstSegment() throws Exception {
+
+		OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false);
+		for (int i = 1; i <= 4; i++) {
+			log.append(record(i));
+		}
+		Files.write(directory.resolve("relay.offset"), new byte[] { 0, 0, 0 });
+
+		OutboxLog.Position position = log.committed();
+		assertThat(position.segment).isEqualTo(0);
+		assertThat(position.offset).isEqualTo(0);
+		assertThat(log.read(position, 10)).hasSize(4);
+	}
+
+	@Test
+	public void TestCommitUnmapsDeletedSegments() throws Exception {
+
+		Path maps = Paths.get("/proc/self/maps");
+		assumeTrue(Files.isReadable(maps), "the mappings of the process can only be listed on Linux");
+
+		OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false);
+		for (int i = 1; i <= 7; i++) {
+			log.append(record(i));
+		}
+		List<Path> segments = segmentFiles();
+		assertThat(mappedFiles(maps)).contains(segments.get(0).toString(), segments.get(1).toString());
+
+		List<OutboxLog.Record> records = log.read(log.first(), 5);
+		log.commit(records.get(4).next);
+
+		// the mappings of the deleted segments are gone without waiting for the garbage collector
+		assertThat(mappedFiles(maps)).doesNotContain(segments.get(0).toString()).contains(segments.get(2).toString());
+		log.close();
+	}
+
+	private static List<String> mappedFiles(Path maps) throws Exception {
+		// the path is the last column, a deleted file is listed with a " (deleted)" suffix
+		return Files.readAllLines(maps).stream()
+				.map(line -> line.replace(" (deleted)", ""))
+				.filter(line -> line.contains("/"))
+				.map(line -> line.substring(line.indexOf('/')))
+				.collect(Collectors.toList());
+	}
+
+	private List<Path> segmentFiles() throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static byte[] record(int i) {
+		return String.format("record-%03d", i).getBytes(UTF_8);
+	}
+
+	private static List<String> payloads(List<OutboxLog.Record> records) {
+		return records.stream().map(record -> new String(record.payload, UTF_8)).collect(Collectors.toList());
+	}
+}
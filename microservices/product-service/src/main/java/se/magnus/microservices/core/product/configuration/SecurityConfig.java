@@ -1,8 +1,12 @@
 package se.magnus.microservices.core.product.configuration;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.security.oauth2.client.OAuth2ClientProperties;
 import org.springframework.boot.autoconfigure.security.oauth2.client.OAuth2ClientProperties.Provider;
 import org.springframework.context.annotation.Bean;
@@ -10,15 +14,23 @@ import org.springframework.security.config.annotation.web.reactive.EnableWebFlux
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.oauth2.client.AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager;
 import org.springframework.security.oauth2.client.InMemoryReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientProviderBuilder;
 import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientService;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.registration.InMemoryReactiveClientRegistrationRepository;
 import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
 import org.springframework.security.oauth2.client.web.reactive.function.client.ServerOAuth2AuthorizedClientExchangeFilterFunction;
 import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
 import org.springframework.security.web.server.SecurityWebFilterChain;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import se.magnus.util.security.CachingReactiveJwtDecoder;
+import se.magnus.util.security.JwtValidationCache;
+import se.magnus.util.security.RefreshingAuthorizedClientManager;
+
 @EnableWebFluxSecurity
 class SecurityConfig {
 
@@ -30,7 +42,7 @@ class SecurityConfig {
 				.httpBasic().disable()
 				.formLogin().disable()
 				.authorizeExchange()
-				.pathMatchers("/api/product/**").authenticated()
+				.pathMatchers("/api/product/**", "/api/products/**").authenticated()
 				.anyExchange().permitAll()
 				.and()
 				.oauth2ResourceServer()
@@ -40,7 +52,31 @@ class SecurityConfig {
 	}
 
 	@Bean
-	WebClient webClient(AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager reactiveClientManager) {
+	JwtValidationCache jwtValidationCache(
+			MeterRegistry registry,
+			@Value("${app.product-service.jwt-cache.enabled:true}") boolean enabled,
+			@Value("${app.product-service.jwt-cache.maxSize:10000}") long maxSize,
+			@Value("${app.product-service.jwt-cache.maxTtlSec:300}") int maxTtlSec) {
+		return new JwtValidationCache(registry, enabled, maxSize, maxTtlSec);
+	}
+
+	// wraps the auto-configured ReactiveJwtDecoder of the resource server, so validated tokens are cached
+	@Bean
+	static BeanPostProcessor jwtDecoderCache(ObjectProvider<JwtValidationCache> cache) {
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof ReactiveJwtDecoder && !(bean instanceof CachingReactiveJwtDecoder) && cache.getObject().isEnabled()) {
+					return new CachingReactiveJwtDecoder((ReactiveJwtDecoder) bean, cache.getObject());
+				}
+				return bean;
+			}
+		};
+	}
+
+	@Bean
+	WebClient webClient(ReactiveOAuth2AuthorizedClientManager reactiveClientManager) {
 		ServerOAuth2AuthorizedClientExchangeFilterFunction oauth = new ServerOAuth2AuthorizedClientExchangeFilterFunction(reactiveClientManager);
 		oauth.setDefaultOAuth2AuthorizedClient(true);
 		return WebClient.builder()
@@ -63,7 +99,7 @@ class SecurityConfig {
 							.clientSecret(v.getClientSecret())
 							.redirectUri(v.getRedirectUri())
 							.authorizationUri(provider.getAuthorizationUri())
-							.authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+							.authorizationGrantType(v.getAuthorizationGrantType() != null ? new AuthorizationGrantType(v.getAuthorizationGrantType()) : AuthorizationGrantType.AUTHORIZATION_CODE)
 							.build();
 					clientRegistrations.add(clientRegistration);
 				});
@@ -72,11 +108,21 @@ class SecurityConfig {
 	}
 
 	@Bean
-	AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager reactiveClientManager(
-			ReactiveClientRegistrationRepository clientRegistrationRepository) {
+	ReactiveOAuth2AuthorizedClientManager reactiveClientManager(
+			ReactiveClientRegistrationRepository clientRegistrationRepository,
+			@Value("${app.product-service.oauth2.refreshBeforeSec:60}") int refreshBeforeSec,
+			@Value("${app.product-service.oauth2.refreshJitterSec:30}") int refreshJitterSec) {
 		ReactiveOAuth2AuthorizedClientService authorizedClientService = new InMemoryReactiveOAuth2AuthorizedClientService(clientRegistrationRepository);
-		return new AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager(clientRegistrationRepository,
+		AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager clientManager = new AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager(clientRegistrationRepository,
 				authorizedClientService);
+
+		// the provider renews a token within the window in which RefreshingAuthorizedClientManager asks for it
+		Duration clockSkew = Duration.ofSeconds(refreshBeforeSec + refreshJitterSec);
+		clientManager.setAuthorizedClientProvider(ReactiveOAuth2AuthorizedClientProviderBuilder.builder()
+				.clientCredentials(builder -> builder.clockSkew(clockSkew))
+				.refreshToken(builder -> builder.clockSkew(clockSkew))
+				.build());
+		return new RefreshingAuthorizedClientManager(clientManager, Duration.ofSeconds(refreshBeforeSec), Duration.ofSeconds(refreshJitterSec));
 	}
 
 }
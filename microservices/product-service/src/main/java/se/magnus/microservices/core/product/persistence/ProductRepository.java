@@ -1,8 +1,17 @@
 package se.magnus.microservices.core.product.persistence;
 
+import java.util.Collection;
+
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String> {
+public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String>, ProductRepositoryCustom {
     Mono<ProductEntity> findByProductId(int productId);
+
+    Flux<ProductEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    Flux<ProductEntity> findByProductIdGreaterThanOrderByProductIdAsc(int productId);
+
+    Mono<Long> deleteByProductIdIn(Collection<Integer> productIds);
 }
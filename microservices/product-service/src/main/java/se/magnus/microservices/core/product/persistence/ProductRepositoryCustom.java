@@ -0,0 +1,16 @@
+package se.magnus.microservices.core.product.persistence;
+
+import java.util.Collection;
+
+import reactor.core.publisher.Mono;
+
+public interface ProductRepositoryCustom {
+
+    /**
+     * Writes the entities with one unordered bulk write. With upsert an entity updates the product with the same productId
+     * instead of failing with a duplicate key, so replayed events are idempotent.
+     *
+     * @return the number of inserted and updated entities
+     */
+    Mono<Integer> bulkWrite(Collection<ProductEntity> entities, boolean upsert);
+}
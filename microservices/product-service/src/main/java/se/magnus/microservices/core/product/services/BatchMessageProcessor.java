@@ -0,0 +1,74 @@
+package se.magnus.microservices.core.product.services;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Profile;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.product.ProductService;
+import se.magnus.util.messaging.BatchEventProcessor;
+import se.magnus.util.messaging.EventDeduplicator;
+import se.magnus.util.messaging.EventProcessingMetrics;
+import se.magnus.util.messaging.SmileMessageConverter;
+
+/**
+ * Replaces {@link MessageProcessor} when the streaming_batch profile is active, the binder then delivers a list of events per poll.
+ * The batch is processed as described in {@link BatchEventProcessor}, products are written with the bulk operations of the {@link ProductService}.
+ */
+@EnableBinding(Sink.class)
+@Profile("streaming_batch")
+public class BatchMessageProcessor extends BatchEventProcessor<Product> {
+
+    private final ProductService productService;
+
+    @Autowired
+    public BatchMessageProcessor(ProductService productService, ObjectMapper mapper, SmileMessageConverter smileConverter, EventDeduplicator deduplicator,
+            EventProcessingMetrics metrics,
+            @Value("${app.streaming.lanes:1}") int lanes) {
+        super("product", Product.class, mapper, smileConverter, deduplicator, metrics, lanes);
+        this.productService = productService;
+    }
+
+    @StreamListener(target = Sink.INPUT)
+    public void process(List<Object> payloads) {
+        processBatch(payloads);
+    }
+
+    @Override
+    protected List<Product> fromAggregate(ProductAggregate aggregate) {
+        return List.of(MessageProcessor.toProduct(aggregate));
+    }
+
+    @Override
+    protected int productId(Product product) {
+        return product.getProductId();
+    }
+
+    @Override
+    protected void createAll(List<Product> products) {
+        productService.createProducts(products);
+    }
+
+    @Override
+    protected void create(Product product) {
+        productService.createProducts(List.of(product));
+    }
+
+    @Override
+    protected void deleteAll(List<Integer> productIds) {
+        productService.deleteProducts(productIds);
+    }
+
+    @Override
+    protected void delete(int productId) {
+        productService.deleteProduct(productId);
+    }
+}
@@ -1,53 +1,98 @@
 package se.magnus.microservices.core.product.services;
 
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Profile;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.magnus.api.composite.product.ProductAggregate;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.core.product.ProductService;
 import se.magnus.api.event.Event;
 import se.magnus.util.exceptions.EventProcessingException;
+import se.magnus.util.messaging.EventDeduplicator;
+import se.magnus.util.messaging.EventProcessingMetrics;
 
 @EnableBinding(Sink.class)
+@Profile("!streaming_batch")
 public class MessageProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(MessageProcessor.class);
 
     private final ProductService productService;
 
+    private final ObjectMapper mapper;
+
+    private final EventDeduplicator deduplicator;
+
+    private final EventProcessingMetrics metrics;
+
     @Autowired
-    public MessageProcessor(ProductService productService) {
+    public MessageProcessor(ProductService productService, ObjectMapper mapper, EventDeduplicator deduplicator, EventProcessingMetrics metrics) {
         this.productService = productService;
+        this.mapper = mapper;
+        this.deduplicator = deduplicator;
+        this.metrics = metrics;
     }
 
     @StreamListener(target = Sink.INPUT)
-    public void process(Event<Integer, Product> event) {
+    public void process(Event<Integer, JsonNode> event) {
+        metrics.recordLag(event.getEventCreatedAt());
+        metrics.process(1, () -> processEvent(event));
+    }
 
-        LOG.info("Process message created at {}...", event.getEventCreatedAt());
+    private void processEvent(Event<Integer, JsonNode> event) {
+
+        LOG.debug("Process message created at {}...", event.getEventCreatedAt());
+
+        if (deduplicator.isDuplicate(event.getEventId())) {
+            LOG.debug("Skips duplicate event: {}", event.getEventId());
+            return;
+        }
 
         switch (event.getEventType()) {
 
         case CREATE:
-            Product product = event.getData();
-            LOG.info("Create product with ID: {}", product.getProductId());
-            productService.createProduct(product);
+            Product product = mapper.convertValue(event.getData(), Product.class);
+            LOG.debug("Create product with ID: {}", product.getProductId());
+            // the bulk path upserts with app.product-service.upsert, createProduct keeps failing on a duplicate for REST callers
+            productService.createProducts(List.of(product));
             break;
 
         case DELETE:
             int productId = event.getKey();
-            LOG.info("Delete recommendations with ProductID: {}", productId);
+            LOG.debug("Delete recommendations with ProductID: {}", productId);
             productService.deleteProduct(productId);
             break;
 
+        case PRODUCT_AGGREGATE_CREATED:
+            Product aggregateProduct = toProduct(mapper.convertValue(event.getData(), ProductAggregate.class));
+            LOG.debug("Create product of aggregate with ID: {}", aggregateProduct.getProductId());
+            productService.createProducts(List.of(aggregateProduct));
+            break;
+
         default:
-            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, DELETE or PRODUCT_AGGREGATE_CREATED event";
             LOG.warn(errorMessage);
             throw new EventProcessingException(errorMessage);
         }
 
-        LOG.info("Message processing done!");
+        deduplicator.markProcessed(event.getEventId());
+        LOG.debug("Message processing done!");
+    }
+
+    /**
+     * The part of a product aggregate that is stored by this service.
+     */
+    static Product toProduct(ProductAggregate aggregate) {
+        return new Product(aggregate.getProductId(), aggregate.getName(), aggregate.getWeight(), null);
     }
 }
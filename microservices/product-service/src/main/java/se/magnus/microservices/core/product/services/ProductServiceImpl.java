@@ -3,11 +3,14 @@ package se.magnus.microservices.core.product.services;
 import static java.util.logging.Level.FINE;
 import static reactor.core.publisher.Mono.error;
 
+import java.util.List;
 import java.util.Random;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
@@ -17,6 +20,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import io.opentracing.Span;
 import io.opentracing.Tracer;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.core.product.ProductService;
@@ -43,13 +47,26 @@ public class ProductServiceImpl implements ProductService {
 
 	private final ProductIntegration productIntegration;
 
+	private final boolean loopback;
+
+	private final boolean upsert;
+
+	/**
+	 * @param upsert products created by createProducts, the path of the event consumers, replace the fields of an existing
+	 *            product with the same productId instead of failing with a duplicate key, so replayed events and re-imports
+	 *            are idempotent. createProduct always inserts and reports a duplicate as invalid input
+	 */
 	@Autowired
-	public ProductServiceImpl(ProductRepository repository, ProductMapper mapper, ServiceUtil serviceUtil, Tracer tracer, ProductIntegration productIntegration) {
+	public ProductServiceImpl(ProductRepository repository, ProductMapper mapper, ServiceUtil serviceUtil, Tracer tracer, ProductIntegration productIntegration,
+			@Value("${app.product-service.loopback:false}") boolean loopback,
+			@Value("${app.product-service.upsert:false}") boolean upsert) {
 		this.repository = repository;
 		this.mapper = mapper;
 		this.serviceUtil = serviceUtil;
 		this.tracer = tracer;
 		this.productIntegration = productIntegration;
+		this.loopback = loopback;
+		this.upsert = upsert;
 	}
 
 	@Override
@@ -69,13 +86,38 @@ public class ProductServiceImpl implements ProductService {
 		return newEntity.block();
 	}
 
+	@Override
+	public List<Product> createProducts(List<Product> body) {
+
+		body.forEach(product -> {
+			if (product.getProductId() < 1)
+				throw new InvalidInputException("Invalid productId: " + product.getProductId());
+		});
+
+		List<ProductEntity> entities = body.stream().map(p -> mapper.apiToEntity(p)).collect(Collectors.toList());
+		repository.bulkWrite(entities, upsert)
+				.log(null, FINE)
+				.onErrorMap(
+						DuplicateKeyException.class,
+						ex -> new InvalidInputException("Duplicate key in batch of " + body.size() + " products"))
+				.block();
+		return entities.stream().map(e -> mapper.entityToApi(e)).collect(Collectors.toList());
+	}
+
 	public Mono<Product> getProductExt(HttpHeaders headers, int productId, int delay, int faultPercent) {
 		return ReactiveSecurityContextHolder.getContext().flatMap(sc -> getProduct(sc, headers, productId, delay, faultPercent));
 	}
 
+	/**
+	 * Reads the product in-process, with the security context of this request. With app.product-service.loopback the read
+	 * goes through the product-ext endpoint over HTTP instead, to test the service-to-service call.
+	 */
 	@Override
 	public Mono<Product> getProduct(HttpHeaders headers, int productId, int delay, int faultPercent) {
-		return productIntegration.getProduct(headers, productId, delay, faultPercent);
+		if (loopback) {
+			return productIntegration.getProduct(headers, productId, delay, faultPercent);
+		}
+		return getProductExt(headers, productId, delay, faultPercent);
 	}
 
 	private Mono<Product> getProduct(SecurityContext sc, HttpHeaders headers, int productId, int delay, int faultPercent) {
@@ -105,6 +147,43 @@ public class ProductServiceImpl implements ProductService {
 				});
 	}
 
+	@Override
+	public Flux<Product> getProductsByProductIds(HttpHeaders headers, List<Integer> productIds) {
+
+		productIds.forEach(productId -> {
+			if (productId == null || productId < 1)
+				throw new InvalidInputException("Invalid productId: " + productId);
+		});
+
+		LOG.info("Will get products for {} product ids", productIds.size());
+
+		return repository.findByProductIdIn(productIds)
+				.log(null, FINE)
+				.map(e -> mapper.entityToApi(e))
+				.map(e -> {
+					e.setServiceAddress(serviceUtil.getServiceAddress());
+					return e;
+				});
+	}
+
+	@Override
+	public Flux<Product> exportProducts(HttpHeaders headers, int fromProductId) {
+
+		if (fromProductId < 0)
+			throw new InvalidInputException("Invalid fromProductId: " + fromProductId);
+
+		LOG.info("Will export products with productId > {}", fromProductId);
+
+		// Streamed from a Mongo cursor over the productId index, demand from the client controls how far the cursor is read
+		return repository.findByProductIdGreaterThanOrderByProductIdAsc(fromProductId)
+				.log(null, FINE)
+				.map(e -> mapper.entityToApi(e))
+				.map(e -> {
+					e.setServiceAddress(serviceUtil.getServiceAddress());
+					return e;
+				});
+	}
+
 	@Override
 	public void deleteProduct(int productId) {
 
@@ -115,6 +194,18 @@ public class ProductServiceImpl implements ProductService {
 		repository.findByProductId(productId).log(null, FINE).map(e -> repository.delete(e)).flatMap(e -> e).block();
 	}
 
+	@Override
+	public void deleteProducts(List<Integer> productIds) {
+
+		productIds.forEach(productId -> {
+			if (productId == null || productId < 1)
+				throw new InvalidInputException("Invalid productId: " + productId);
+		});
+
+		LOG.debug("deleteProducts: tries to delete entities for {} productIds", productIds.size());
+		repository.deleteByProductIdIn(productIds).log(null, FINE).block();
+	}
+
 	private void simulateDelay(int delay) {
 		LOG.debug("Sleeping for {} seconds...", delay);
 		try {
@@ -1,8 +1,15 @@
 package se.magnus.microservices.core.recommendation.persistence;
 
+import java.util.Collection;
+
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String> {
+public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String>, RecommendationRepositoryCustom {
     Flux<RecommendationEntity> findByProductId(int productId);
+
+    Flux<RecommendationEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    Mono<Long> deleteByProductIdIn(Collection<Integer> productIds);
 }
@@ -0,0 +1,16 @@
+package se.magnus.microservices.core.recommendation.persistence;
+
+import java.util.Collection;
+
+import reactor.core.publisher.Mono;
+
+public interface RecommendationRepositoryCustom {
+
+    /**
+     * Writes the entities with one unordered bulk write. With upsert an entity updates the recommendation with the same productId and recommendationId
+     * instead of failing with a duplicate key, so replayed events are idempotent.
+     *
+     * @return the number of inserted and updated entities
+     */
+    Mono<Integer> bulkWrite(Collection<RecommendationEntity> entities, boolean upsert);
+}
@@ -0,0 +1,61 @@
+package se.magnus.microservices.core.recommendation.persistence;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Bulk writes with the Mongo driver, ReactiveMongoOperations has no bulk operations. The writes go through
+ * ReactiveMongoOperations.execute, so a duplicate key is still reported as a DuplicateKeyException.
+ */
+class RecommendationRepositoryCustomImpl implements RecommendationRepositoryCustom {
+
+    private final ReactiveMongoOperations operations;
+
+    @Autowired
+    RecommendationRepositoryCustomImpl(ReactiveMongoOperations operations) {
+        this.operations = operations;
+    }
+
+    @Override
+    public Mono<Integer> bulkWrite(Collection<RecommendationEntity> entities, boolean upsert) {
+        if (entities.isEmpty()) {
+            return Mono.just(0);
+        }
+
+        List<WriteModel<Document>> writes = entities.stream().map(entity -> toWrite(entity, upsert)).collect(Collectors.toList());
+        return operations.execute(RecommendationEntity.class, collection -> collection.bulkWrite(writes, new BulkWriteOptions().ordered(false)))
+                .next()
+                .map(result -> result.getInsertedCount() + result.getModifiedCount() + result.getUpserts().size());
+    }
+
+    private WriteModel<Document> toWrite(RecommendationEntity entity, boolean upsert) {
+        Document document = new Document();
+        operations.getConverter().write(entity, document);
+        document.remove("_id");
+
+        if (!upsert) {
+            document.put("version", 0);
+            return new InsertOneModel<>(document);
+        }
+
+        // the version is only incremented, an update must not reset it
+        document.remove("version");
+        return new UpdateOneModel<>(
+                new Document("productId", entity.getProductId()).append("recommendationId", entity.getRecommendationId()),
+                new Document("$set", document).append("$inc", new Document("version", 1)),
+                new UpdateOptions().upsert(true));
+    }
+}
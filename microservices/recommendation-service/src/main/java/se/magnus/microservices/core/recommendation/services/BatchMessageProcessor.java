@@ -0,0 +1,74 @@
+package se.magnus.microservices.core.recommendation.services;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Profile;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.recommendation.RecommendationService;
+import se.magnus.util.messaging.BatchEventProcessor;
+import se.magnus.util.messaging.EventDeduplicator;
+import se.magnus.util.messaging.EventProcessingMetrics;
+import se.magnus.util.messaging.SmileMessageConverter;
+
+/**
+ * Replaces {@link MessageProcessor} when the streaming_batch profile is active, the binder then delivers a list of events per poll.
+ * The batch is processed as described in {@link BatchEventProcessor}, recommendations are written with the bulk operations of the {@link RecommendationService}.
+ */
+@EnableBinding(Sink.class)
+@Profile("streaming_batch")
+public class BatchMessageProcessor extends BatchEventProcessor<Recommendation> {
+
+    private final RecommendationService recommendationService;
+
+    @Autowired
+    public BatchMessageProcessor(RecommendationService recommendationService, ObjectMapper mapper, SmileMessageConverter smileConverter, EventDeduplicator deduplicator,
+            EventProcessingMetrics metrics,
+            @Value("${app.streaming.lanes:1}") int lanes) {
+        super("recommendation", Recommendation.class, mapper, smileConverter, deduplicator, metrics, lanes);
+        this.recommendationService = recommendationService;
+    }
+
+    @StreamListener(target = Sink.INPUT)
+    public void process(List<Object> payloads) {
+        processBatch(payloads);
+    }
+
+    @Override
+    protected List<Recommendation> fromAggregate(ProductAggregate aggregate) {
+        return MessageProcessor.toRecommendations(aggregate);
+    }
+
+    @Override
+    protected int productId(Recommendation recommendation) {
+        return recommendation.getProductId();
+    }
+
+    @Override
+    protected void createAll(List<Recommendation> recommendations) {
+        recommendationService.createRecommendations(recommendations);
+    }
+
+    @Override
+    protected void create(Recommendation recommendation) {
+        recommendationService.createRecommendations(List.of(recommendation));
+    }
+
+    @Override
+    protected void deleteAll(List<Integer> productIds) {
+        recommendationService.deleteRecommendationsByProductIds(productIds);
+    }
+
+    @Override
+    protected void delete(int productId) {
+        recommendationService.deleteRecommendations(productId);
+    }
+}
@@ -1,53 +1,107 @@
 package se.magnus.microservices.core.recommendation.services;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Profile;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.magnus.api.composite.product.ProductAggregate;
 import se.magnus.api.core.recommendation.Recommendation;
 import se.magnus.api.core.recommendation.RecommendationService;
 import se.magnus.api.event.Event;
 import se.magnus.util.exceptions.EventProcessingException;
+import se.magnus.util.messaging.EventDeduplicator;
+import se.magnus.util.messaging.EventProcessingMetrics;
 
 @EnableBinding(Sink.class)
+@Profile("!streaming_batch")
 public class MessageProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(MessageProcessor.class);
 
     private final RecommendationService recommendationService;
 
+    private final ObjectMapper mapper;
+
+    private final EventDeduplicator deduplicator;
+
+    private final EventProcessingMetrics metrics;
+
     @Autowired
-    public MessageProcessor(RecommendationService recommendationService) {
+    public MessageProcessor(RecommendationService recommendationService, ObjectMapper mapper, EventDeduplicator deduplicator, EventProcessingMetrics metrics) {
         this.recommendationService = recommendationService;
+        this.mapper = mapper;
+        this.deduplicator = deduplicator;
+        this.metrics = metrics;
     }
 
     @StreamListener(target = Sink.INPUT)
-    public void process(Event<Integer, Recommendation> event) {
+    public void process(Event<Integer, JsonNode> event) {
+        metrics.recordLag(event.getEventCreatedAt());
+        metrics.process(1, () -> processEvent(event));
+    }
+
+    private void processEvent(Event<Integer, JsonNode> event) {
 
-        LOG.info("Process message created at {}...", event.getEventCreatedAt());
+        LOG.debug("Process message created at {}...", event.getEventCreatedAt());
+
+        if (deduplicator.isDuplicate(event.getEventId())) {
+            LOG.debug("Skips duplicate event: {}", event.getEventId());
+            return;
+        }
 
         switch (event.getEventType()) {
 
         case CREATE:
-            Recommendation recommendation = event.getData();
-            LOG.info("Create recommendation with ID: {}/{}", recommendation.getProductId(), recommendation.getRecommendationId());
-            recommendationService.createRecommendation(recommendation);
+            Recommendation recommendation = mapper.convertValue(event.getData(), Recommendation.class);
+            LOG.debug("Create recommendation with ID: {}/{}", recommendation.getProductId(), recommendation.getRecommendationId());
+            // the bulk path upserts with app.recommendation-service.upsert, createRecommendation keeps failing on a duplicate for REST callers
+            recommendationService.createRecommendations(List.of(recommendation));
             break;
 
         case DELETE:
             int productId = event.getKey();
-            LOG.info("Delete recommendations with ProductID: {}", productId);
+            LOG.debug("Delete recommendations with ProductID: {}", productId);
             recommendationService.deleteRecommendations(productId);
             break;
 
+        case PRODUCT_AGGREGATE_CREATED:
+            List<Recommendation> recommendations = toRecommendations(mapper.convertValue(event.getData(), ProductAggregate.class));
+            LOG.debug("Create {} recommendations of aggregate with ProductID: {}", recommendations.size(), event.getKey());
+            if (!recommendations.isEmpty()) {
+                recommendationService.createRecommendations(recommendations);
+            }
+            break;
+
         default:
-            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, DELETE or PRODUCT_AGGREGATE_CREATED event";
             LOG.warn(errorMessage);
             throw new EventProcessingException(errorMessage);
         }
 
-        LOG.info("Message processing done!");
+        deduplicator.markProcessed(event.getEventId());
+        LOG.debug("Message processing done!");
+    }
+
+    /**
+     * The part of a product aggregate that is stored by this service.
+     */
+    static List<Recommendation> toRecommendations(ProductAggregate aggregate) {
+        if (aggregate.getRecommendations() == null) {
+            return Collections.emptyList();
+        }
+        return aggregate.getRecommendations().stream()
+                .map(r -> new Recommendation(aggregate.getProductId(), r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null))
+                .collect(Collectors.toList());
     }
 }
@@ -2,9 +2,13 @@ package se.magnus.microservices.core.recommendation.services;
 
 import static java.util.logging.Level.FINE;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.RestController;
@@ -29,11 +33,21 @@ public class RecommendationServiceImpl implements RecommendationService {
 
 	private final ServiceUtil serviceUtil;
 
+	private final boolean upsert;
+
+	/**
+	 * @param upsert recommendations created by createRecommendations, the path of the event consumers, replace the fields of
+	 *            an existing one with the same productId and recommendationId instead of failing with a duplicate key, so
+	 *            replayed events and re-imports are idempotent. createRecommendation always inserts and reports a duplicate
+	 *            as invalid input
+	 */
 	@Autowired
-	public RecommendationServiceImpl(RecommendationRepository repository, RecommendationMapper mapper, ServiceUtil serviceUtil) {
+	public RecommendationServiceImpl(RecommendationRepository repository, RecommendationMapper mapper, ServiceUtil serviceUtil,
+			@Value("${app.recommendation-service.upsert:false}") boolean upsert) {
 		this.repository = repository;
 		this.mapper = mapper;
 		this.serviceUtil = serviceUtil;
+		this.upsert = upsert;
 	}
 
 	@Override
@@ -53,6 +67,24 @@ public class RecommendationServiceImpl implements RecommendationService {
 		return newEntity.block();
 	}
 
+	@Override
+	public List<Recommendation> createRecommendations(List<Recommendation> body) {
+
+		body.forEach(recommendation -> {
+			if (recommendation.getProductId() < 1)
+				throw new InvalidInputException("Invalid productId: " + recommendation.getProductId());
+		});
+
+		List<RecommendationEntity> entities = mapper.apiListToEntityList(body);
+		repository.bulkWrite(entities, upsert)
+				.log(null, FINE)
+				.onErrorMap(
+						DuplicateKeyException.class,
+						ex -> new InvalidInputException("Duplicate key in batch of " + body.size() + " recommendations"))
+				.block();
+		return entities.stream().map(e -> mapper.entityToApi(e)).collect(Collectors.toList());
+	}
+
 	@Override
 	public Flux<Recommendation> getRecommendations(HttpHeaders headers, int productId) {
 
@@ -70,6 +102,25 @@ public class RecommendationServiceImpl implements RecommendationService {
 				});
 	}
 
+	@Override
+	public Flux<Recommendation> getRecommendationsByProductIds(HttpHeaders headers, List<Integer> productIds) {
+
+		productIds.forEach(productId -> {
+			if (productId == null || productId < 1)
+				throw new InvalidInputException("Invalid productId: " + productId);
+		});
+
+		LOG.info("Will get recommendations for {} product ids", productIds.size());
+
+		return repository.findByProductIdIn(productIds)
+				.log(null, FINE)
+				.map(e -> mapper.entityToApi(e))
+				.map(e -> {
+					e.setServiceAddress(serviceUtil.getServiceAddress());
+					return e;
+				});
+	}
+
 	@Override
 	public void deleteRecommendations(int productId) {
 
@@ -79,4 +130,16 @@ public class RecommendationServiceImpl implements RecommendationService {
 		LOG.debug("deleteRecommendations: tries to delete recommendations for the product with productId: {}", productId);
 		repository.deleteAll(repository.findByProductId(productId)).block();
 	}
+
+	@Override
+	public void deleteRecommendationsByProductIds(List<Integer> productIds) {
+
+		productIds.forEach(productId -> {
+			if (productId == null || productId < 1)
+				throw new InvalidInputException("Invalid productId: " + productId);
+		});
+
+		LOG.debug("deleteRecommendationsByProductIds: tries to delete recommendations for {} productIds", productIds.size());
+		repository.deleteByProductIdIn(productIds).log(null, FINE).block();
+	}
 }
@@ -2,40 +2,19 @@ package se.magnus.microservices.core.review;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcTransactionManagerAutoConfiguration;
 import org.springframework.context.ConfigurableApplicationContext;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
-import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
-import java.util.concurrent.Executors;
-
-@SpringBootApplication
+@SpringBootApplication(exclude = { R2dbcAutoConfiguration.class, R2dbcTransactionManagerAutoConfiguration.class })
 @ComponentScan("se.magnus")
 public class ReviewServiceApplication {
 
 	private static final Logger LOG = LoggerFactory.getLogger(ReviewServiceApplication.class);
 
-	private final Integer connectionPoolSize;
-
-	@Autowired
-	public ReviewServiceApplication(
-		@Value("${spring.datasource.maximum-pool-size:10}")
-		Integer connectionPoolSize
-	) {
-		this.connectionPoolSize = connectionPoolSize;
-	}
-
-    @Bean
-    public Scheduler jdbcScheduler() {
-        LOG.info("Creates a jdbcScheduler with connectionPoolSize = " + connectionPoolSize);
-        return Schedulers.fromExecutor(Executors.newFixedThreadPool(connectionPoolSize));
-    }
-
 	public static void main(String[] args) {
 		ConfigurableApplicationContext ctx = SpringApplication.run(ReviewServiceApplication.class, args);
 
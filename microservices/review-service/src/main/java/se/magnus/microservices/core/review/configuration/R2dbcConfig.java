@@ -0,0 +1,59 @@
+package se.magnus.microservices.core.review.configuration;
+
+import static io.r2dbc.spi.ConnectionFactoryOptions.PASSWORD;
+import static io.r2dbc.spi.ConnectionFactoryOptions.USER;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+
+/**
+ * R2DBC connection pool for the read path, active with the r2dbc profile.
+ *
+ * Spring Boot's R2DBC auto-configuration is excluded in {@link se.magnus.microservices.core.review.ReviewServiceApplication},
+ * it would register a reactive transaction manager next to the JPA one and break @Transactional on the repository.
+ * Writes stay on JPA, so no transaction manager is needed here.
+ */
+@Configuration
+@Profile("r2dbc")
+public class R2dbcConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(R2dbcConfig.class);
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionPool r2dbcConnectionPool(
+            @Value("${app.review-service.r2dbc.url}") String url,
+            @Value("${app.review-service.r2dbc.username:${spring.datasource.username:}}") String username,
+            @Value("${app.review-service.r2dbc.password:${spring.datasource.password:}}") String password,
+            @Value("${app.review-service.r2dbc.maxPoolSize:20}") int maxPoolSize) {
+
+        LOG.info("Creates an R2DBC connection pool for {} with maxPoolSize = {}", url, maxPoolSize);
+
+        ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(url).mutate()
+                .option(USER, username)
+                .option(PASSWORD, password)
+                .build();
+
+        return new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+                .initialSize(Math.min(maxPoolSize, 5))
+                .maxSize(maxPoolSize)
+                .maxIdleTime(Duration.ofMinutes(30))
+                .build());
+    }
+
+    @Bean
+    public DatabaseClient databaseClient(ConnectionPool r2dbcConnectionPool) {
+        return DatabaseClient.create(r2dbcConnectionPool);
+    }
+}
@@ -0,0 +1,173 @@
+package se.magnus.microservices.core.review.persistence;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Runs the blocking JPA calls of the review service.
+ *
+ * Execution mode "fixed" runs them on a thread pool sized to the connection pool, the former jdbcScheduler.
+ * Execution mode "virtual" runs every call on its own virtual thread, which requires a Java runtime with virtual threads (Java 21),
+ * older runtimes fall back to the fixed pool. The service image is based on Java 11, so the mode has no effect until it moves to a
+ * Java 21 base image.
+ * The threads are only created by the first call that needs them, e.g. not for reads served by R2DBC.
+ * In both modes a semaphore sized to the Hikari pool bounds the number of concurrent calls, reads and writes alike,
+ * so callers wait for a permit instead of for a connection.
+ */
+@Component
+public class JdbcExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcExecutor.class);
+
+    public enum ExecutionMode { FIXED, VIRTUAL }
+
+    private final ExecutionMode executionMode;
+
+    private final int connectionPoolSize;
+
+    private final Semaphore permits;
+
+    private volatile ExecutorService executorService;
+
+    private volatile Scheduler scheduler;
+
+    @Autowired
+    public JdbcExecutor(
+            @Value("${app.review-service.executionMode:fixed}") String executionMode,
+            @Value("${spring.datasource.hikari.maximum-pool-size:${spring.datasource.maximum-pool-size:10}}") int connectionPoolSize) {
+
+        this(ExecutionMode.valueOf(executionMode.toUpperCase()), connectionPoolSize);
+    }
+
+    public JdbcExecutor(ExecutionMode executionMode, int connectionPoolSize) {
+
+        if (executionMode == ExecutionMode.VIRTUAL && virtualThreadFactory() == null) {
+            LOG.warn("Virtual threads are not supported by this Java runtime, falls back to a fixed thread pool");
+            executionMode = ExecutionMode.FIXED;
+        }
+
+        this.executionMode = executionMode;
+        this.connectionPoolSize = connectionPoolSize;
+        this.permits = new Semaphore(connectionPoolSize, true);
+
+        LOG.info("Creates a JDBC executor with executionMode = {} and connectionPoolSize = {}", executionMode, connectionPoolSize);
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Runs a blocking query on the executor and emits its result.
+     */
+    public <T> Flux<T> flux(Supplier<? extends Iterable<T>> query) {
+        return Flux.defer(() -> Flux.fromIterable(withPermit(query))).subscribeOn(scheduler());
+    }
+
+    /**
+     * Runs a blocking operation and waits for its result.
+     * In fixed mode the operation runs on the calling thread, in virtual mode on a virtual thread.
+     */
+    public <T> T call(Supplier<T> operation) {
+
+        if (executionMode == ExecutionMode.FIXED) {
+            return withPermit(operation);
+        }
+
+        try {
+            return executorService().submit(() -> withPermit(operation)).get();
+
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a JDBC call", ie);
+
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new IllegalStateException(ee.getCause());
+        }
+    }
+
+    public void run(Runnable operation) {
+        call(() -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.dispose();
+        }
+    }
+
+    private Scheduler scheduler() {
+        // the scheduler is created together with the executor service
+        executorService();
+        return scheduler;
+    }
+
+    private ExecutorService executorService() {
+        ExecutorService current = executorService;
+        if (current == null) {
+            synchronized (this) {
+                current = executorService;
+                if (current == null) {
+                    current = (executionMode == ExecutionMode.VIRTUAL) ? newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(connectionPoolSize);
+                    scheduler = Schedulers.fromExecutorService(current, "jdbc");
+                    executorService = current;
+                    LOG.info("Creates the {} threads of the JDBC executor", executionMode);
+                }
+            }
+        }
+        return current;
+    }
+
+    private <T> T withPermit(Supplier<T> operation) {
+        permits.acquireUninterruptibly();
+        try {
+            return operation.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) virtualThreadFactory().invoke(null);
+        } catch (ReflectiveOperationException roe) {
+            throw new IllegalStateException("Could not create a virtual thread executor", roe);
+        }
+    }
+
+    /**
+     * Looked up by reflection, the service is compiled for Java 11.
+     *
+     * @return null if the runtime has no virtual threads
+     */
+    private static Method virtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException nsme) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package se.magnus.microservices.core.review.persistence;
+
+import java.util.Collection;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Runs the blocking JPA queries on the {@link JdbcExecutor}.
+ */
+@Component
+@Profile("!r2dbc")
+public class JpaReviewReader implements ReviewReader {
+
+    private final ReviewRepository repository;
+
+    private final JdbcExecutor jdbcExecutor;
+
+    @Autowired
+    public JpaReviewReader(ReviewRepository repository, JdbcExecutor jdbcExecutor) {
+        this.repository = repository;
+        this.jdbcExecutor = jdbcExecutor;
+    }
+
+    @Override
+    public Flux<ReviewEntity> findByProductId(int productId) {
+        return jdbcExecutor.flux(() -> repository.findByProductId(productId));
+    }
+
+    @Override
+    public Flux<ReviewEntity> findByProductIdIn(Collection<Integer> productIds) {
+        return jdbcExecutor.flux(() -> repository.findByProductIdIn(productIds));
+    }
+}
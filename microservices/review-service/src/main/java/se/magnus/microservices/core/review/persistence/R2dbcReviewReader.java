@@ -0,0 +1,57 @@
+package se.magnus.microservices.core.review.persistence;
+
+import java.util.Collection;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+
+import io.r2dbc.spi.Row;
+import reactor.core.publisher.Flux;
+
+/**
+ * Reads the reviews table written by JPA through a non-blocking R2DBC driver.
+ * Rows are emitted as they are decoded, no thread hand-off and no intermediate list per query.
+ */
+@Component
+@Profile("r2dbc")
+public class R2dbcReviewReader implements ReviewReader {
+
+    private static final String SELECT_REVIEWS = "SELECT id, version, product_id, review_id, author, subject, content FROM reviews";
+
+    private final DatabaseClient databaseClient;
+
+    @Autowired
+    public R2dbcReviewReader(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    @Override
+    public Flux<ReviewEntity> findByProductId(int productId) {
+        return databaseClient.sql(SELECT_REVIEWS + " WHERE product_id = :productId")
+                .bind("productId", productId)
+                .map((row, metadata) -> toEntity(row))
+                .all();
+    }
+
+    @Override
+    public Flux<ReviewEntity> findByProductIdIn(Collection<Integer> productIds) {
+        return databaseClient.sql(SELECT_REVIEWS + " WHERE product_id IN (:productIds)")
+                .bind("productIds", productIds)
+                .map((row, metadata) -> toEntity(row))
+                .all();
+    }
+
+    private static ReviewEntity toEntity(Row row) {
+        ReviewEntity entity = new ReviewEntity(
+                row.get("product_id", Integer.class),
+                row.get("review_id", Integer.class),
+                row.get("author", String.class),
+                row.get("subject", String.class),
+                row.get("content", String.class));
+        entity.setId(row.get("id", Integer.class));
+        entity.setVersion(row.get("version", Integer.class));
+        return entity;
+    }
+}
@@ -0,0 +1,16 @@
+package se.magnus.microservices.core.review.persistence;
+
+import java.util.Collection;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Read side of the review persistence.
+ * Backed by JPA on the {@link JdbcExecutor} by default, or by R2DBC when the r2dbc profile is active.
+ */
+public interface ReviewReader {
+
+    Flux<ReviewEntity> findByProductId(int productId);
+
+    Flux<ReviewEntity> findByProductIdIn(Collection<Integer> productIds);
+}
@@ -1,12 +1,32 @@
 package se.magnus.microservices.core.review.persistence;
 
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer> {
 
     @Transactional(readOnly = true)
     List<ReviewEntity> findByProductId(int productId);
+
+    @Transactional(readOnly = true)
+    List<ReviewEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    /**
+     * One DELETE statement, a derived delete would load every review and delete it on its own.
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from ReviewEntity r where r.productId = :productId")
+    int deleteByProductId(@Param("productId") int productId);
+
+    @Modifying
+    @Transactional
+    @Query("delete from ReviewEntity r where r.productId in :productIds")
+    int deleteByProductIdIn(@Param("productIds") Collection<Integer> productIds);
 }
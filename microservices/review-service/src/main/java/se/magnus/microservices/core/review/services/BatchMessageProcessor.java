@@ -0,0 +1,74 @@
+package se.magnus.microservices.core.review.services;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Profile;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.core.review.Review;
+import se.magnus.api.core.review.ReviewService;
+import se.magnus.util.messaging.BatchEventProcessor;
+import se.magnus.util.messaging.EventDeduplicator;
+import se.magnus.util.messaging.EventProcessingMetrics;
+import se.magnus.util.messaging.SmileMessageConverter;
+
+/**
+ * Replaces {@link MessageProcessor} when the streaming_batch profile is active, the binder then delivers a list of events per poll.
+ * The batch is processed as described in {@link BatchEventProcessor}, reviews are written with the bulk operations of the {@link ReviewService}.
+ */
+@EnableBinding(Sink.class)
+@Profile("streaming_batch")
+public class BatchMessageProcessor extends BatchEventProcessor<Review> {
+
+    private final ReviewService reviewService;
+
+    @Autowired
+    public BatchMessageProcessor(ReviewService reviewService, ObjectMapper mapper, SmileMessageConverter smileConverter, EventDeduplicator deduplicator,
+            EventProcessingMetrics metrics,
+            @Value("${app.streaming.lanes:1}") int lanes) {
+        super("review", Review.class, mapper, smileConverter, deduplicator, metrics, lanes);
+        this.reviewService = reviewService;
+    }
+
+    @StreamListener(target = Sink.INPUT)
+    public void process(List<Object> payloads) {
+        processBatch(payloads);
+    }
+
+    @Override
+    protected List<Review> fromAggregate(ProductAggregate aggregate) {
+        return MessageProcessor.toReviews(aggregate);
+    }
+
+    @Override
+    protected int productId(Review review) {
+        return review.getProductId();
+    }
+
+    @Override
+    protected void createAll(List<Review> reviews) {
+        reviewService.createReviews(reviews);
+    }
+
+    @Override
+    protected void create(Review review) {
+        reviewService.createReview(review);
+    }
+
+    @Override
+    protected void deleteAll(List<Integer> productIds) {
+        reviewService.deleteReviewsByProductIds(productIds);
+    }
+
+    @Override
+    protected void delete(int productId) {
+        reviewService.deleteReviews(productId);
+    }
+}
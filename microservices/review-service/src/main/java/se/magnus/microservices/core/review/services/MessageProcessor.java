@@ -1,53 +1,106 @@
 package se.magnus.microservices.core.review.services;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Profile;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.magnus.api.composite.product.ProductAggregate;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.core.review.ReviewService;
 import se.magnus.api.event.Event;
 import se.magnus.util.exceptions.EventProcessingException;
+import se.magnus.util.messaging.EventDeduplicator;
+import se.magnus.util.messaging.EventProcessingMetrics;
 
 @EnableBinding(Sink.class)
+@Profile("!streaming_batch")
 public class MessageProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(MessageProcessor.class);
 
     private final ReviewService reviewService;
 
+    private final ObjectMapper mapper;
+
+    private final EventDeduplicator deduplicator;
+
+    private final EventProcessingMetrics metrics;
+
     @Autowired
-    public MessageProcessor(ReviewService reviewService) {
+    public MessageProcessor(ReviewService reviewService, ObjectMapper mapper, EventDeduplicator deduplicator, EventProcessingMetrics metrics) {
         this.reviewService = reviewService;
+        this.mapper = mapper;
+        this.deduplicator = deduplicator;
+        this.metrics = metrics;
     }
 
     @StreamListener(target = Sink.INPUT)
-    public void process(Event<Integer, Review> event) {
+    public void process(Event<Integer, JsonNode> event) {
+        metrics.recordLag(event.getEventCreatedAt());
+        metrics.process(1, () -> processEvent(event));
+    }
+
+    private void processEvent(Event<Integer, JsonNode> event) {
 
-        LOG.info("Process message created at {}...", event.getEventCreatedAt());
+        LOG.debug("Process message created at {}...", event.getEventCreatedAt());
+
+        if (deduplicator.isDuplicate(event.getEventId())) {
+            LOG.debug("Skips duplicate event: {}", event.getEventId());
+            return;
+        }
 
         switch (event.getEventType()) {
 
         case CREATE:
-            Review review = event.getData();
-            LOG.info("Create review with ID: {}/{}", review.getProductId(), review.getReviewId());
+            Review review = mapper.convertValue(event.getData(), Review.class);
+            LOG.debug("Create review with ID: {}/{}", review.getProductId(), review.getReviewId());
             reviewService.createReview(review);
             break;
 
         case DELETE:
             int productId = event.getKey();
-            LOG.info("Delete reviews with ProductID: {}", productId);
+            LOG.debug("Delete reviews with ProductID: {}", productId);
             reviewService.deleteReviews(productId);
             break;
 
+        case PRODUCT_AGGREGATE_CREATED:
+            List<Review> reviews = toReviews(mapper.convertValue(event.getData(), ProductAggregate.class));
+            LOG.debug("Create {} reviews of aggregate with ProductID: {}", reviews.size(), event.getKey());
+            if (!reviews.isEmpty()) {
+                reviewService.createReviews(reviews);
+            }
+            break;
+
         default:
-            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, DELETE or PRODUCT_AGGREGATE_CREATED event";
             LOG.warn(errorMessage);
             throw new EventProcessingException(errorMessage);
         }
 
-        LOG.info("Message processing done!");
+        deduplicator.markProcessed(event.getEventId());
+        LOG.debug("Message processing done!");
+    }
+
+    /**
+     * The part of a product aggregate that is stored by this service.
+     */
+    static List<Review> toReviews(ProductAggregate aggregate) {
+        if (aggregate.getReviews() == null) {
+            return Collections.emptyList();
+        }
+        return aggregate.getReviews().stream()
+                .map(r -> new Review(aggregate.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent(), null))
+                .collect(Collectors.toList());
     }
 }
@@ -2,22 +2,23 @@ package se.magnus.microservices.core.review.services;
 
 import static java.util.logging.Level.FINE;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Supplier;
 
-import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.RestController;
 
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Scheduler;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.core.review.ReviewService;
+import se.magnus.microservices.core.review.persistence.JdbcExecutor;
 import se.magnus.microservices.core.review.persistence.ReviewEntity;
+import se.magnus.microservices.core.review.persistence.ReviewReader;
 import se.magnus.microservices.core.review.persistence.ReviewRepository;
 import se.magnus.util.exceptions.InvalidInputException;
 import se.magnus.util.http.ServiceUtil;
@@ -33,14 +34,26 @@ public class ReviewServiceImpl implements ReviewService {
 
 	private final ServiceUtil serviceUtil;
 
-	private final Scheduler scheduler;
+	private final ReviewReader reader;
+
+	private final JdbcExecutor jdbcExecutor;
+
+	private final int queryChunkSize;
 
 	@Autowired
-	public ReviewServiceImpl(Scheduler scheduler, ReviewRepository repository, ReviewMapper mapper, ServiceUtil serviceUtil) {
-		this.scheduler = scheduler;
+	public ReviewServiceImpl(
+			ReviewReader reader,
+			JdbcExecutor jdbcExecutor,
+			ReviewRepository repository,
+			ReviewMapper mapper,
+			ServiceUtil serviceUtil,
+			@Value("${app.review-service.queryChunkSize:100}") int queryChunkSize) {
+		this.reader = reader;
+		this.jdbcExecutor = jdbcExecutor;
 		this.repository = repository;
 		this.mapper = mapper;
 		this.serviceUtil = serviceUtil;
+		this.queryChunkSize = queryChunkSize;
 	}
 
 	@Override
@@ -51,7 +64,7 @@ public class ReviewServiceImpl implements ReviewService {
 
 		try {
 			ReviewEntity entity = mapper.apiToEntity(body);
-			ReviewEntity newEntity = repository.save(entity);
+			ReviewEntity newEntity = jdbcExecutor.call(() -> repository.save(entity));
 
 			LOG.debug("createReview: created a review entity: {}/{}", body.getProductId(), body.getReviewId());
 			return mapper.entityToApi(newEntity);
@@ -61,6 +74,27 @@ public class ReviewServiceImpl implements ReviewService {
 		}
 	}
 
+	@Override
+	public List<Review> createReviews(List<Review> body) {
+
+		body.forEach(review -> {
+			if (review.getProductId() < 1)
+				throw new InvalidInputException("Invalid productId: " + review.getProductId());
+		});
+
+		try {
+			List<ReviewEntity> entities = mapper.apiListToEntityList(body);
+			List<ReviewEntity> newEntities = new ArrayList<>();
+			jdbcExecutor.call(() -> repository.saveAll(entities)).forEach(newEntities::add);
+
+			LOG.debug("createReviews: created {} review entities", newEntities.size());
+			return mapper.entityListToApiList(newEntities);
+
+		} catch (DataIntegrityViolationException dive) {
+			throw new InvalidInputException("Duplicate key in batch of " + body.size() + " reviews");
+		}
+	}
+
 	@Override
 	public Flux<Review> getReviews(HttpHeaders headers, int productId) {
 
@@ -69,18 +103,36 @@ public class ReviewServiceImpl implements ReviewService {
 
 		LOG.info("Will get reviews for product with id={}", productId);
 
-		return asyncFlux(() -> Flux.fromIterable(getByProductId(productId))).log(null, FINE);
+		return reader.findByProductId(productId)
+				.log(null, FINE)
+				.map(e -> mapper.entityToApi(e))
+				.map(e -> {
+					e.setServiceAddress(serviceUtil.getServiceAddress());
+					return e;
+				});
 	}
 
-	protected List<Review> getByProductId(int productId) {
-
-		List<ReviewEntity> entityList = repository.findByProductId(productId);
-		List<Review> list = mapper.entityListToApiList(entityList);
-		list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
-
-		LOG.debug("Response size: {}", list.size());
-
-		return list;
+	@Override
+	public Flux<Review> getReviewsByProductIds(HttpHeaders headers, List<Integer> productIds) {
+
+		productIds.forEach(productId -> {
+			if (productId == null || productId < 1)
+				throw new InvalidInputException("Invalid productId: " + productId);
+		});
+
+		LOG.info("Will get reviews for {} product ids", productIds.size());
+
+		// One IN query per chunk of product ids, keeps statements short and bounds the rows the JPA reader holds in memory
+		return Flux.fromIterable(productIds)
+				.distinct()
+				.buffer(queryChunkSize)
+				.concatMap(chunk -> reader.findByProductIdIn(chunk))
+				.log(null, FINE)
+				.map(e -> mapper.entityToApi(e))
+				.map(e -> {
+					e.setServiceAddress(serviceUtil.getServiceAddress());
+					return e;
+				});
 	}
 
 	@Override
@@ -90,10 +142,19 @@ public class ReviewServiceImpl implements ReviewService {
 			throw new InvalidInputException("Invalid productId: " + productId);
 
 		LOG.debug("deleteReviews: tries to delete reviews for the product with productId: {}", productId);
-		repository.deleteAll(repository.findByProductId(productId));
+		int deleted = jdbcExecutor.call(() -> repository.deleteByProductId(productId));
+		LOG.debug("deleteReviews: deleted {} reviews", deleted);
 	}
 
-	private <T> Flux<T> asyncFlux(Supplier<Publisher<T>> publisherSupplier) {
-		return Flux.defer(publisherSupplier).subscribeOn(scheduler);
+	@Override
+	public void deleteReviewsByProductIds(List<Integer> productIds) {
+
+		productIds.forEach(productId -> {
+			if (productId == null || productId < 1)
+				throw new InvalidInputException("Invalid productId: " + productId);
+		});
+
+		LOG.debug("deleteReviewsByProductIds: tries to delete reviews for {} productIds", productIds.size());
+		jdbcExecutor.run(() -> repository.deleteByProductIdIn(productIds));
 	}
 }
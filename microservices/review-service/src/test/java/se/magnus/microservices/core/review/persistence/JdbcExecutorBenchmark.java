@@ -0,0 +1,142 @@
+package se.magnus.microservices.core.review.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Compares the fixed thread pool with the virtual thread execution mode of {@link JdbcExecutor}
+ * at a given number of concurrent readers, against an in-memory H2 database behind a Hikari pool.
+ * Each query sleeps to simulate the round trip to MySQL. The virtual mode is only measured on a Java 21 runtime.
+ *
+ * Not a test, run it from the IDE or with:
+ *
+ * mvn -pl review-service test-compile exec:java -Dexec.classpathScope=test \
+ * -Dexec.mainClass=se.magnus.microservices.core.review.persistence.JdbcExecutorBenchmark \
+ * -Dexec.args="1000 10 5"
+ *
+ * Arguments: concurrent readers, connection pool size, simulated query latency in ms.
+ */
+public class JdbcExecutorBenchmark {
+
+    public static void main(String[] args) throws SQLException {
+
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int latencyMs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:reviews;DB_CLOSE_DELAY=-1");
+        config.setMaximumPoolSize(poolSize);
+        config.setConnectionTimeout(60000);
+
+        try (HikariDataSource dataSource = new HikariDataSource(config)) {
+            setupDatabase(dataSource);
+
+            for (JdbcExecutor.ExecutionMode mode : JdbcExecutor.ExecutionMode.values()) {
+                JdbcExecutor executor = new JdbcExecutor(mode, poolSize);
+                if (executor.getExecutionMode() != mode) {
+                    // measuring the fallback would only repeat the fixed pool
+                    System.out.printf("mode=%s skipped, not supported by this Java runtime%n", mode);
+                    continue;
+                }
+                try {
+                    // warm up
+                    run(executor, dataSource, poolSize, latencyMs);
+                    Result result = run(executor, dataSource, readers, latencyMs);
+                    System.out.printf("mode=%s, readers=%d, poolSize=%d, latencyMs=%d: %s%n", mode, readers, poolSize, latencyMs, result);
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        }
+    }
+
+    private static Result run(JdbcExecutor executor, HikariDataSource dataSource, int readers, int latencyMs) {
+
+        long start = System.nanoTime();
+        List<Long> latencies = Flux.range(0, readers)
+                .flatMap(i -> timed(executor.flux(() -> query(dataSource, 1 + i % 100, latencyMs)).then()), readers)
+                .collectList()
+                .block();
+        long elapsed = System.nanoTime() - start;
+
+        return new Result(latencies, elapsed);
+    }
+
+    private static Mono<Long> timed(Mono<Void> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.then(Mono.fromCallable(() -> System.nanoTime() - start));
+        });
+    }
+
+    private static List<Integer> query(HikariDataSource dataSource, int productId, int latencyMs) {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement("SELECT review_id, SLEEP(?) FROM reviews WHERE product_id = ?")) {
+            statement.setInt(1, latencyMs);
+            statement.setInt(2, productId);
+            List<Integer> reviewIds = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    reviewIds.add(rs.getInt(1));
+                }
+            }
+            return reviewIds;
+        } catch (SQLException se) {
+            throw new IllegalStateException(se);
+        }
+    }
+
+    private static void setupDatabase(HikariDataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE ALIAS IF NOT EXISTS SLEEP FOR \"" + JdbcExecutorBenchmark.class.getName() + ".sleep\"");
+            statement.execute("CREATE TABLE IF NOT EXISTS reviews (product_id INT, review_id INT, PRIMARY KEY (product_id, review_id))");
+            statement.execute("DELETE FROM reviews");
+            // one review per product, the simulated latency is applied once per row
+            for (int productId = 1; productId <= 100; productId++) {
+                statement.execute("INSERT INTO reviews VALUES (" + productId + ", 1)");
+            }
+        }
+    }
+
+    public static int sleep(int millis) throws InterruptedException {
+        Thread.sleep(millis);
+        return millis;
+    }
+
+    private static class Result {
+
+        private final long[] latencies;
+
+        private final long elapsedNanos;
+
+        Result(List<Long> latencies, long elapsedNanos) {
+            this.latencies = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        private double percentileMs(double percentile) {
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(index, 0)] / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1_000_000_000.0;
+            return String.format("throughput=%.0f req/s, p50=%.1f ms, p99=%.1f ms, max=%.1f ms",
+                    latencies.length / seconds, percentileMs(50), percentileMs(99), Arrays.stream(latencies).max().orElse(0) / 1_000_000.0);
+        }
+    }
+}